@@ -0,0 +1,134 @@
+package io.jeffrey.swam.bench;
+
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniverseSettings;
+import io.jeffrey.swam.simulated.SimulatedAws;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.amazonaws.services.route53.model.RRType;
+
+/**
+ * the hosted zone and record set lookups with an account holding many zones and a zone holding many records; the
+ * cold benchmarks include the paginated scan which fills the index
+ *
+ * @author jeffrey
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+  /** how many zones the account has, and how many records the big zone has */
+  @Param({ "1000", "10000", "50000" })
+  public int           size;
+
+  private SimulatedAws aws;
+  private Universe     universe;
+  private String       zoneId;
+  private String[]     zoneNames;
+  private String[]     recordNames;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    aws = new SimulatedAws();
+    aws.latencyMs = 0;
+    aws.jitterMs = 0;
+    aws.route53ThrottlePerSecond = 0;
+    final UniverseSettings settings = new UniverseSettings();
+    settings.route53RatePerSecond = 1000000;
+    universe = aws.universe(settings);
+    zoneNames = new String[size];
+    for (int k = 0; k < size; k++) {
+      zoneNames[k] = "zone-" + k + ".test";
+      aws.route53.createHostedZone(new CreateHostedZoneRequest(zoneNames[k], "bench-" + k));
+    }
+    final HostedZone big = aws.route53.createHostedZone(new CreateHostedZoneRequest("big.test", "bench-big")).getHostedZone();
+    zoneId = big.getId();
+    recordNames = new String[size];
+    ArrayList<Change> changes = new ArrayList<>();
+    for (int k = 0; k < size; k++) {
+      recordNames[k] = "site-" + k + ".big.test";
+      final ResourceRecordSet set = new ResourceRecordSet(recordNames[k] + ".", RRType.CNAME).withTTL(300L).withResourceRecords(new ResourceRecord("site-" + k + ".s3-website-us-east-1.amazonaws.com"));
+      changes.add(new Change(ChangeAction.CREATE, set));
+      if (changes.size() == 1000 || k == size - 1) {
+        aws.route53.changeResourceRecordSets(new ChangeResourceRecordSetsRequest(zoneId, new ChangeBatch(changes)));
+        changes = new ArrayList<>();
+      }
+    }
+    // warm both indexes
+    universe.zones.find(zoneNames[0]);
+    universe.records.find(zoneId, recordNames[0], "CNAME");
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    universe.shutdown();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public HostedZone zoneFind() {
+    return universe.zones.find(zoneNames[ThreadLocalRandom.current().nextInt(size)]);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public HostedZone zoneFindEnclosing() {
+    return universe.zones.findEnclosing("www.deep." + zoneNames[ThreadLocalRandom.current().nextInt(size)]);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public ResourceRecordSet recordFind() {
+    return universe.records.find(zoneId, recordNames[ThreadLocalRandom.current().nextInt(size)], "CNAME");
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public HostedZone zoneColdScan() {
+    universe.zones.invalidate();
+    return universe.zones.find(zoneNames[size - 1]);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public ResourceRecordSet recordColdScan() {
+    universe.records.invalidate(zoneId);
+    return universe.records.find(zoneId, recordNames[size - 1], "CNAME");
+  }
+}
@@ -0,0 +1,100 @@
+package io.jeffrey.swam.bench;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniverseSettings;
+import io.jeffrey.swam.simulated.SimulatedAws;
+import io.jeffrey.swam.workflows.CreateWebsiteWorkflow;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+
+/**
+ * setupDomain end to end against the simulated backend; each invocation provisions one new domain per unit of
+ * concurrency at once, so the score is the wall time for a wave of that many sites
+ *
+ * @author jeffrey
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SetupDomainBenchmark {
+
+  @Param({ "1", "8", "32" })
+  public int                    concurrency;
+
+  /** the latency every simulated call pays */
+  @Param({ "5" })
+  public long                   latencyMs;
+
+  private Universe              universe;
+  private CreateWebsiteWorkflow workflow;
+  private ExecutorService       workers;
+  private final AtomicLong      sites = new AtomicLong(0);
+
+  @Setup(Level.Trial)
+  public void setup() {
+    final SimulatedAws aws = new SimulatedAws();
+    aws.latencyMs = latencyMs;
+    aws.jitterMs = latencyMs / 2;
+    aws.route53ThrottlePerSecond = 0;
+    aws.s3ThrottlePerSecond = 0;
+    aws.domainsThrottlePerSecond = 0;
+    aws.propagationMs = 0;
+    final UniverseSettings settings = new UniverseSettings();
+    settings.route53RatePerSecond = 100000;
+    settings.s3RatePerSecond = 100000;
+    settings.changeLingerMs = 1;
+    universe = aws.universe(settings);
+    universe.route53.createHostedZone(new CreateHostedZoneRequest("bench.test", "bench"));
+    final WorkflowStatusLog quiet = (parts) -> {
+    };
+    workflow = new CreateWebsiteWorkflow(quiet, universe);
+    workers = Executors.newFixedThreadPool(concurrency);
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() throws Exception {
+    workers.shutdownNow();
+    universe.shutdown();
+  }
+
+  @Benchmark
+  public int wave() throws Exception {
+    final ArrayList<Future<Set<String>>> futures = new ArrayList<>();
+    for (int k = 0; k < concurrency; k++) {
+      final String domain = "site-" + sites.incrementAndGet() + ".bench.test";
+      futures.add(workers.submit(() -> workflow.setupDomain(domain, HostingRegion.US_STANDARD)));
+    }
+    int changes = 0;
+    for (final Future<Set<String>> future : futures) {
+      changes += future.get().size();
+    }
+    return changes;
+  }
+}
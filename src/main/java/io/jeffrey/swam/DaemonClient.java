@@ -0,0 +1,69 @@
+package io.jeffrey.swam;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * The thin end of the daemon: forwards its arguments to a running ToolDaemon and prints what comes back, so a command
+ * costs a small JVM and a loopback connection. Nothing of the SDK is loaded here. When no daemon is running, the command
+ * runs in this process just as Tool would run it.
+ *
+ * <pre>
+ * java -cp swam.jar io.jeffrey.swam.DaemonClient setup-domain alice.example.com
+ * </pre>
+ *
+ * @author jeffrey
+ */
+public class DaemonClient {
+
+  public static void main(final String[] args) throws Exception {
+    final File tokenFile = new File(System.getenv("HOME"), ToolDaemon.TOKEN_FILE);
+    if (tokenFile.exists()) {
+      final String[] parts = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+      try {
+        System.exit(forward(Integer.parseInt(parts[0]), parts[1], args));
+      } catch (final ConnectException e) {
+        System.err.println("no daemon on port " + parts[0] + " (a stale " + tokenFile + "?); running here");
+      }
+    }
+    Tool.main(args);
+  }
+
+  /**
+   * send the command and print its output as it arrives
+   *
+   * @return the exit code of the command
+   */
+  private static int forward(final int port, final String token, final String[] args) throws IOException {
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      final PrintStream request = new PrintStream(socket.getOutputStream(), false, "UTF-8");
+      // the daemon runs elsewhere, so relative paths within the arguments are resolved against our directory
+      request.print(token + "\n" + new File(System.getProperty("user.dir")).getAbsolutePath() + "\n" + args.length + "\n");
+      for (final String arg : args) {
+        if (arg.indexOf('\n') >= 0) {
+          throw new IllegalArgumentException("an argument may not hold a new line");
+        }
+        request.print(arg + "\n");
+      }
+      request.flush();
+      final BufferedReader response = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      String line;
+      while ((line = response.readLine()) != null) {
+        if (line.startsWith(ToolDaemon.EXIT_MARKER)) {
+          return Integer.parseInt(line.substring(ToolDaemon.EXIT_MARKER.length()).trim());
+        }
+        System.out.println(line);
+      }
+      System.err.println("the daemon hung up before the command finished");
+      return 1;
+    }
+  }
+}
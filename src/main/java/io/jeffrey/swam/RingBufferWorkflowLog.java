@@ -0,0 +1,231 @@
+package io.jeffrey.swam;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A WorkflowStatusLog which keeps the callers off of the output's lock. Callers drop events into a bounded lock-free
+ * ring and a single background writer formats and writes them; if the ring is ever full the event is dropped (and
+ * counted) rather than stalling the workflow. An idle writer is parked until a producer wakes it.
+ *
+ * @author jeffrey
+ */
+public class RingBufferWorkflowLog implements WorkflowStatusLog, AutoCloseable {
+
+  /**
+   * an event as captured on the calling thread; nothing is formatted until the writer gets to it
+   */
+  private static class Event {
+    private final long     at;
+    private final Level    level;
+    private final String   thread;
+    private final String   stage;
+    private final String   message;
+    private final Object[] keyValues;
+
+    private Event(final Level level, final String stage, final String message, final Object[] keyValues) {
+      this.at = System.nanoTime();
+      this.level = level;
+      this.thread = Thread.currentThread().getName();
+      this.stage = stage;
+      this.message = message;
+      this.keyValues = keyValues;
+    }
+  }
+
+  private final long                        started;
+  private final Level                       minimum;
+  private final int                         mask;
+  private final AtomicReferenceArray<Event> slots;
+  private final AtomicLongArray             sequences;
+  private final AtomicLong                  tail;
+  private long                              head;
+  private final AtomicLong                  dropped;
+  private final Writer                      out;
+  private final Thread                      writer;
+  private volatile boolean                  closed;
+  /** whether the writer is (about to be) parked waiting for an event; producers wake it */
+  private volatile boolean                  sleeping;
+
+  /**
+   * @param output where the lines go
+   * @param capacity how many events may be waiting (rounded up to a power of two)
+   * @param minimum events below this level are ignored on the calling thread
+   */
+  public RingBufferWorkflowLog(final OutputStream output, final int capacity, final Level minimum) {
+    final int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.started = System.nanoTime();
+    this.minimum = minimum;
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int k = 0; k < size; k++) {
+      sequences.set(k, k);
+    }
+    this.tail = new AtomicLong(0);
+    this.head = 0;
+    this.dropped = new AtomicLong(0);
+    this.out = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 64 * 1024);
+    this.closed = false;
+    this.writer = new Thread(this::drain, "workflow-log-writer");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  @Override
+  public boolean isEnabled(final Level level) {
+    return level.ordinal() >= minimum.ordinal();
+  }
+
+  @Override
+  public void log(final String... lineParts) {
+    if (isEnabled(Level.INFO)) {
+      offer(new Event(Level.INFO, null, null, lineParts));
+    }
+  }
+
+  @Override
+  public void event(final Level level, final String stage, final String message, final Object... keyValues) {
+    if (isEnabled(level)) {
+      offer(new Event(level, stage, message, keyValues));
+    }
+  }
+
+  /**
+   * @return how many events were dropped because the ring was full
+   */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  /**
+   * write everything still in the ring and stop the writer
+   */
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * claim a slot in the ring (many producers)
+   */
+  private void offer(final Event event) {
+    long position = tail.get();
+    while (true) {
+      final int index = (int) position & mask;
+      final long diff = sequences.get(index) - position;
+      if (diff == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          slots.set(index, event);
+          // a full fence (not lazySet) so that either we see the writer is asleep or the writer sees this event
+          sequences.set(index, position + 1);
+          if (sleeping) {
+            LockSupport.unpark(writer);
+          }
+          return;
+        }
+        position = tail.get();
+      } else if (diff < 0) {
+        dropped.incrementAndGet();
+        return;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return whether the next event is ready to be taken (only the writer asks)
+   */
+  private boolean ready() {
+    return sequences.get((int) head & mask) == head + 1;
+  }
+
+  /**
+   * take the next event from the ring (only the writer does this)
+   */
+  private Event poll() {
+    final int index = (int) head & mask;
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    final Event event = slots.get(index);
+    slots.set(index, null);
+    sequences.lazySet(index, head + mask + 1);
+    head++;
+    return event;
+  }
+
+  /**
+   * the writer: format and write until closed and empty, flushing whenever the ring runs dry
+   */
+  private void drain() {
+    final StringBuilder line = new StringBuilder(256);
+    try {
+      while (true) {
+        Event event = poll();
+        if (event == null) {
+          out.flush();
+          if (!closed) {
+            // announce the nap, then look once more so an event offered in between is not left waiting
+            sleeping = true;
+            if (!ready() && !closed) {
+              LockSupport.park(this);
+            }
+            sleeping = false;
+            continue;
+          }
+          // closed; one last look for an event which slipped in before we stop
+          event = poll();
+          if (event == null) {
+            final long lost = dropped.get();
+            if (lost > 0) {
+              out.write("LOG dropped " + lost + " events\n");
+            }
+            out.flush();
+            return;
+          }
+        }
+        line.setLength(0);
+        format(event, line);
+        out.write(line.toString());
+      }
+    } catch (final IOException e) {
+      // nowhere left to complain to
+    }
+  }
+
+  /**
+   * turn the event into a line
+   */
+  private void format(final Event event, final StringBuilder line) {
+    line.append("LOG[").append(TimeUnit.NANOSECONDS.toMillis(event.at - started)).append("ms] ");
+    line.append(event.level).append(" [").append(event.thread).append("]");
+    if (event.stage == null) {
+      for (final Object part : event.keyValues) {
+        line.append(' ').append(part);
+      }
+    } else {
+      line.append(' ').append(event.stage).append(' ').append(event.message);
+      for (int k = 0; k + 1 < event.keyValues.length; k += 2) {
+        line.append(' ').append(event.keyValues[k]).append('=').append(event.keyValues[k + 1]);
+      }
+    }
+    line.append('\n');
+  }
+}
@@ -1,57 +1,357 @@
 package io.jeffrey.swam;
 
+import io.jeffrey.swam.WorkflowStatusLog.Level;
 import io.jeffrey.swam.amazon.Account;
 import io.jeffrey.swam.amazon.ContactDetailsSerialization;
 import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.ProvisioningJournal;
 import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniversePool;
+import io.jeffrey.swam.amazon.UniverseSettings;
+import io.jeffrey.swam.http.ProvisioningService;
+import io.jeffrey.swam.simulated.SimulatedAws;
+import io.jeffrey.swam.workflows.AuditWorkflow;
+import io.jeffrey.swam.workflows.BatchWebsiteWorkflow;
 import io.jeffrey.swam.workflows.CreateWebsiteWorkflow;
+import io.jeffrey.swam.workflows.PlanWebsiteWorkflow;
 import io.jeffrey.swam.workflows.RegisterDomainWorkflow;
+import io.jeffrey.swam.workflows.SyncSiteWorkflow;
+import io.jeffrey.swam.workflows.TeardownWebsiteWorkflow;
+import io.jeffrey.swam.workflows.WarmPool;
 
 import java.io.File;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
 import com.amazonaws.services.route53domains.model.ContactDetail;
 
 /**
  * Until there is a UI, I will have the CLI
  */
 public class Tool {
-  
-  public static class StdErrWorkflowLog implements WorkflowStatusLog {
 
-    private long started;
-    
-    public StdErrWorkflowLog() {
-      this.started = System.currentTimeMillis();
+  /** released once main has shut everything down, which a shutdown hook waits for before the JVM may halt */
+  private static final CountDownLatch SHUT_DOWN = new CountDownLatch(1);
+
+  public static void main(final String[] args) throws Exception {
+    final String home = System.getenv("HOME");
+    final UniversePool pool = openPool(args, home);
+    final Level level = Level.valueOf(System.getProperty("swam.log.level", "INFO").toUpperCase());
+    final RingBufferWorkflowLog log = new RingBufferWorkflowLog(System.err, 8192, level);
+    try {
+      run(args, home, new File(System.getProperty("user.dir")), pool, log, System.out);
+    } finally {
+      final List<UniversePool.Shard> shards = pool.shards();
+      for (final UniversePool.Shard shard : shards) {
+        log.event(Level.INFO, "tool", "limits", "account", shard.name, "summary", shard.universe.limiterSummary());
+        if (shards.size() > 1) {
+          System.err.println("account " + shard.name);
+        }
+        System.err.print(shard.universe.metrics.summary());
+        final String metricsJson = System.getProperty("swam.metrics.json");
+        if (metricsJson != null) {
+          shard.universe.metrics.writeJson(new File(shards.size() > 1 ? metricsJson + "." + shard.name : metricsJson));
+        }
+      }
+      if (shards.size() > 1) {
+        log.event(Level.INFO, "tool", "placement", "summary", pool.summary());
+      }
+      try {
+        pool.shutdown();
+        log.close();
+      } finally {
+        SHUT_DOWN.countDown();
+      }
     }
-    
-    private String age() {
-      long delta = System.currentTimeMillis() - started;
-      return delta + "ms";
+  }
+
+  /**
+   * block until the JVM is asked to stop (i.e. Ctrl-C); the hook which asks holds the JVM open until main has shut
+   * everything down, so the pending Route53 changes are flushed, the journals closed, and the metrics printed
+   */
+  private static void awaitStop() throws InterruptedException {
+    final CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      stopped.countDown();
+      try {
+        SHUT_DOWN.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "swam-shutdown"));
+    stopped.await();
+  }
+
+  /**
+   * The accounts to work with: every {name}.aws within ~/accounts (each with its own journal, and with the site to
+   * account placements in ~/swam.placement), or else the single account in ~/root.aws. A simulation makes as many
+   * simulated accounts as it is asked for.
+   */
+  private static UniversePool openPool(final String[] args, final String home) throws Exception {
+    final File settingsFile = new File(home, "universe.aws");
+    final UniversePool.Placement placement = UniversePool.Placement.valueOf(System.getProperty("swam.placement", "LEAST_LOADED").toUpperCase());
+    final LinkedHashMap<String, Universe> universes = new LinkedHashMap<>();
+    final int simulated = simulatedAccounts(args);
+    if (simulated > 0) {
+      for (int k = 0; k < simulated; k++) {
+        universes.put("sim-" + k, new SimulatedAws().universe(loadSettings(settingsFile)));
+      }
+      return universes.size() == 1 ? new UniversePool(universes.get("sim-0")) : new UniversePool(universes, placement, new ProvisioningJournal());
     }
-    
-    @Override
-    public void log(String... lineParts) {
-      System.err.println("LOG[" + age() + "] : 6" + String.join(" ", lineParts));
+    final File[] accounts = new File(home, "accounts").listFiles((dir, name) -> name.endsWith(".aws"));
+    if (accounts == null || accounts.length == 0) {
+      final UniverseSettings settings = loadSettings(settingsFile);
+      if (settings.journalPath == null) {
+        settings.journalPath = new File(home, "swam.journal").getPath();
+      }
+      return new UniversePool(new Universe(Account.fromPlaintextDisk(new File(home, "root.aws")), settings));
     }
-    
+    Arrays.sort(accounts);
+    for (final File account : accounts) {
+      final String name = account.getName().substring(0, account.getName().length() - ".aws".length());
+      final UniverseSettings settings = loadSettings(settingsFile);
+      settings.journalPath = new File(home, "swam." + name + ".journal").getPath();
+      universes.put(name, new Universe(Account.fromPlaintextDisk(account), settings));
+    }
+    return new UniversePool(universes, placement, new ProvisioningJournal(new File(home, "swam.placement")));
   }
-  
-  public static void main(final String[] args) throws Exception {
-    final String home = System.getenv("HOME");
-    final Account account = Account.fromPlaintextDisk(new File(home, "root.aws"));
-    final Universe universe = new Universe(account);
-    if (args.length != 2) {
-      System.err.println("tool missing arguments");
+
+  /**
+   * @return how many simulated accounts the command asks for (simulate {count} {par} [accounts], or daemon {port}
+   *         [accounts]), 0 if it runs against real ones
+   */
+  private static int simulatedAccounts(final String[] args) {
+    if (args.length > 0 && "simulate".equals(args[0])) {
+      return args.length > 3 ? Integer.parseInt(args[3]) : 1;
+    }
+    if (args.length > 2 && "daemon".equals(args[0])) {
+      return Integer.parseInt(args[2]);
+    }
+    return 0;
+  }
+
+  /**
+   * a fresh copy of the settings for a single universe
+   */
+  private static UniverseSettings loadSettings(final File settingsFile) throws Exception {
+    final UniverseSettings settings = settingsFile.exists() ? UniverseSettings.fromDisk(settingsFile) : new UniverseSettings();
+    if (Boolean.getBoolean("swam.journal.verify")) {
+      settings.journalVerify = true;
+    }
+    return settings;
+  }
+
+  /**
+   * a path given on the command line, relative to where the command was given
+   */
+  private static File resolve(final File cwd, final String path) {
+    final File file = new File(path);
+    return file.isAbsolute() ? file : new File(cwd, path);
+  }
+
+  /**
+   * @param place whether sites which have not been placed are placed (otherwise they are looked for on the first
+   *        account)
+   * @return the domains grouped by the account each lives on
+   */
+  private static Map<UniversePool.Shard, List<String>> byAccount(final UniversePool pool, final List<String> domains, final boolean place) throws Exception {
+    final LinkedHashMap<UniversePool.Shard, List<String>> byAccount = new LinkedHashMap<>();
+    for (final String domain : domains) {
+      final UniversePool.Shard shard = place ? pool.place(domain) : pool.placed(domain);
+      byAccount.computeIfAbsent(shard != null ? shard : pool.shards().get(0), (k) -> new ArrayList<>()).add(domain);
+    }
+    return byAccount;
+  }
+
+  /**
+   * run a single command against the universe
+   *
+   * @param cwd where the command was given (relative paths within the arguments are relative to it)
+   */
+  private static void run(final String[] args, final String home, final File cwd, final UniversePool pool, final WorkflowStatusLog log, final PrintStream out) throws Exception {
+    if (args.length < 2) {
+      out.println("tool missing arguments");
       return;
     }
+    // every command about a site runs on the account the site is placed on
     if ("register-domain".equals(args[0])) {
       final ContactDetail contact = ContactDetailsSerialization.load(new File(home, "contact.aws.domain"));
-      final RegisterDomainWorkflow register = new RegisterDomainWorkflow(new StdErrWorkflowLog(), universe);
+      final RegisterDomainWorkflow register = new RegisterDomainWorkflow(log, pool.place(args[1]).universe);
       register.register(args[1], contact, contact, contact);
     }
+    if ("register-domains".equals(args[0])) {
+      final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+      final ContactDetail contact = ContactDetailsSerialization.load(new File(home, "contact.aws.domain"));
+      for (final Map.Entry<UniversePool.Shard, List<String>> entry : byAccount(pool, BatchWebsiteWorkflow.readDomains(resolve(cwd, args[1])), true).entrySet()) {
+        final RegisterDomainWorkflow register = new RegisterDomainWorkflow(log, entry.getKey().universe);
+        for (final RegisterDomainWorkflow.Registration registration : register.registerAll(entry.getValue(), contact, contact, contact, parallelism)) {
+          out.println(registration);
+        }
+      }
+    }
     if ("setup-domain".equals(args[0])) {
-      final CreateWebsiteWorkflow creator = new CreateWebsiteWorkflow(new StdErrWorkflowLog(), universe);
-      creator.setupDomain(args[1], HostingRegion.US_STANDARD);
+      final CreateWebsiteWorkflow creator = new CreateWebsiteWorkflow(log, pool.place(args[1]).universe);
+      final long started = System.currentTimeMillis();
+      creator.whenLive(creator.setupDomain(args[1], HostingRegion.US_STANDARD)).get();
+      out.println("LIVE " + args[1] + " " + (System.currentTimeMillis() - started) + "ms");
+    }
+    if ("setup-batch".equals(args[0])) {
+      final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+      final List<String> domains = BatchWebsiteWorkflow.readDomains(resolve(cwd, args[1]));
+      final BatchWebsiteWorkflow batch = new BatchWebsiteWorkflow(log, pool, parallelism);
+      final long started = System.currentTimeMillis();
+      final List<BatchWebsiteWorkflow.Outcome> outcomes = batch.setupDomains(domains, HostingRegion.US_STANDARD);
+      int failures = 0;
+      for (final BatchWebsiteWorkflow.Outcome outcome : outcomes) {
+        out.println(outcome);
+        if (!outcome.succeeded()) {
+          failures++;
+        }
+      }
+      out.println("domains=" + outcomes.size() + " failures=" + failures + " wall=" + (System.currentTimeMillis() - started) + "ms");
+      for (final BatchWebsiteWorkflow.Outcome outcome : outcomes) {
+        if (outcome.succeeded()) {
+          try {
+            out.println("LIVE " + outcome.domain + " " + outcome.liveMs.get() + "ms");
+          } catch (final ExecutionException e) {
+            out.println("STALE " + outcome.domain + " " + e.getCause().getMessage());
+          }
+        }
+      }
+      out.println("live wall=" + (System.currentTimeMillis() - started) + "ms");
+    }
+    if ("audit".equals(args[0])) {
+      for (final UniversePool.Shard shard : pool.shards()) {
+        final AuditWorkflow audit = new AuditWorkflow(log, shard.universe, Integer.parseInt(args[1]));
+        final AuditWorkflow.Summary summary = audit.audit(out::println);
+        out.println(pool.shards().size() > 1 ? "account=" + shard.name + " " + summary : summary.toString());
+      }
+    }
+    if ("teardown".equals(args[0])) {
+      final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+      final List<String> domains = BatchWebsiteWorkflow.readDomains(resolve(cwd, args[1]));
+      final long started = System.currentTimeMillis();
+      int failures = 0;
+      for (final Map.Entry<UniversePool.Shard, List<String>> entry : byAccount(pool, domains, false).entrySet()) {
+        final TeardownWebsiteWorkflow teardown = new TeardownWebsiteWorkflow(log, entry.getKey().universe, parallelism);
+        for (final TeardownWebsiteWorkflow.Outcome outcome : teardown.teardownDomains(entry.getValue())) {
+          out.println(outcome);
+          if (outcome.succeeded()) {
+            pool.release(outcome.domain);
+          } else {
+            failures++;
+          }
+        }
+      }
+      out.println("domains=" + domains.size() + " failures=" + failures + " wall=" + (System.currentTimeMillis() - started) + "ms");
+    }
+    if ("plan".equals(args[0]) || "apply".equals(args[0])) {
+      final boolean apply = "apply".equals(args[0]);
+      final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+      final List<String> domains = BatchWebsiteWorkflow.readDomains(resolve(cwd, args[1]));
+      final long started = System.currentTimeMillis();
+      int failures = 0;
+      // a plan only looks; an apply places each site
+      for (final Map.Entry<UniversePool.Shard, List<String>> entry : byAccount(pool, domains, apply).entrySet()) {
+        final CreateWebsiteWorkflow creator = new CreateWebsiteWorkflow(log, entry.getKey().universe);
+        final PlanWebsiteWorkflow planner = new PlanWebsiteWorkflow(log, entry.getKey().universe, parallelism);
+        final PlanWebsiteWorkflow.Plan plan = planner.plan(entry.getValue(), HostingRegion.US_STANDARD);
+        for (final PlanWebsiteWorkflow.SitePlan site : plan.sites) {
+          out.println(site);
+        }
+        out.println("account=" + entry.getKey().name + " " + plan);
+        if (apply) {
+          final PlanWebsiteWorkflow.Applied applied = planner.apply(plan);
+          for (final Map.Entry<String, Exception> failure : applied.failures.entrySet()) {
+            out.println("FAIL " + failure.getKey() + " " + failure.getValue().getClass().getSimpleName() + ":" + failure.getValue().getMessage());
+          }
+          failures += applied.failures.size();
+          creator.whenLive(applied.changeIds).get();
+        }
+      }
+      out.println("domains=" + domains.size() + (apply ? " failures=" + failures : "") + " wall=" + (System.currentTimeMillis() - started) + "ms");
+    }
+    if ("simulate".equals(args[0])) {
+      final int count = Integer.parseInt(args[1]);
+      final int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+      // each simulated account hosts its own copy of the class zone
+      for (final UniversePool.Shard shard : pool.shards()) {
+        shard.universe.route53.createHostedZone(new CreateHostedZoneRequest("class.test", "simulate-" + System.currentTimeMillis()));
+      }
+      final ArrayList<String> domains = new ArrayList<>();
+      for (int k = 0; k < count; k++) {
+        domains.add("site-" + k + ".class.test");
+      }
+      final BatchWebsiteWorkflow batch = new BatchWebsiteWorkflow(log, pool, parallelism);
+      final long started = System.currentTimeMillis();
+      final List<BatchWebsiteWorkflow.Outcome> outcomes = batch.setupDomains(domains, HostingRegion.US_STANDARD);
+      int failures = 0;
+      for (final BatchWebsiteWorkflow.Outcome outcome : outcomes) {
+        if (!outcome.succeeded()) {
+          out.println(outcome);
+          failures++;
+        }
+      }
+      final long setup = System.currentTimeMillis() - started;
+      for (final BatchWebsiteWorkflow.Outcome outcome : outcomes) {
+        if (outcome.succeeded()) {
+          try {
+            outcome.liveMs.get();
+          } catch (final ExecutionException e) {
+            failures++;
+          }
+        }
+      }
+      out.println("simulated domains=" + count + " parallelism=" + parallelism + " accounts=" + pool.shards().size() + " failures=" + failures + " setup=" + setup + "ms live=" + (System.currentTimeMillis() - started) + "ms");
+    }
+    if ("serve".equals(args[0])) {
+      final int port = args.length > 2 ? Integer.parseInt(args[2]) : 8080;
+      final int workers = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+      final int queue = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+      final int warm = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+      final WarmPool warmPool = warm > 0 ? new WarmPool(log, pool, args[1], HostingRegion.US_STANDARD, warm) : null;
+      final ProvisioningService service = new ProvisioningService(log, pool, args[1], HostingRegion.US_STANDARD, new InetSocketAddress(port), workers, queue, warmPool);
+      if (warmPool != null) {
+        warmPool.start(60);
+      }
+      service.start();
+      awaitStop();
+      service.stop();
+      if (warmPool != null) {
+        warmPool.stop();
+      }
+    }
+    if ("daemon".equals(args[0])) {
+      final int workers = Integer.getInteger("swam.daemon.workers", 4);
+      final ToolDaemon daemon = new ToolDaemon(log, (command, from, client) -> {
+        if (command.length > 0 && ("daemon".equals(command[0]) || "serve".equals(command[0]))) {
+          throw new IllegalArgumentException(command[0] + " can not run within the daemon");
+        }
+        run(command, home, from, pool, log, client);
+      }, Integer.parseInt(args[1]), workers, new File(home, ToolDaemon.TOKEN_FILE));
+      daemon.start();
+      out.println("daemon listening on port " + daemon.port());
+      awaitStop();
+      daemon.stop();
+    }
+    if ("sync-site".equals(args[0])) {
+      if (args.length < 3) {
+        out.println("sync-site needs a bucket and a directory");
+        return;
+      }
+      final int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+      // the bucket is the site or its www
+      final String site = args[1].toLowerCase().startsWith("www.") ? args[1].substring("www.".length()) : args[1];
+      final SyncSiteWorkflow sync = new SyncSiteWorkflow(log, pool.place(site).universe, parallelism);
+      out.println(sync.sync(resolve(cwd, args[2]), args[1]));
     }
   }
 }
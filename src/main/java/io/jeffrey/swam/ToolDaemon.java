@@ -0,0 +1,188 @@
+package io.jeffrey.swam;
+
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * Keeps the tool resident so a command starts in milliseconds rather than paying for a JVM, the loading of the SDK,
+ * and fresh connections (and TLS handshakes) every time. The daemon holds the universes (their clients, connection
+ * pools, zone and record indexes, and journals) and runs each command a client forwards against them, streaming the
+ * command's output back.
+ * <p>
+ * The daemon listens on the loopback interface only, and a client must present the token which the daemon writes
+ * (along with its port) into a file only its owner may read; see DaemonClient for the other end. A client sends the
+ * directory it runs in, and the command resolves relative paths against it rather than against the daemon's.
+ *
+ * <pre>
+ * client: {token}\n{cwd}\n{count}\n{arg}\n...   (one line per argument)
+ * daemon: {output}...\0exit {code}\n
+ * </pre>
+ *
+ * @author jeffrey
+ */
+public class ToolDaemon {
+  /** where (within the home directory) the port and token are kept */
+  public static final String TOKEN_FILE  = "swam.daemon";
+  /** the last line of a response starts with this, followed by the exit code */
+  public static final String EXIT_MARKER = "\0exit ";
+
+  /**
+   * A command as the tool would run it from main
+   */
+  public static interface Command {
+    /**
+     * @param cwd the directory of the client (where relative paths within the arguments are relative to)
+     */
+    void run(String[] args, File cwd, PrintStream out) throws Exception;
+  }
+
+  private final WorkflowStatusLog log;
+  private final Command           command;
+  private final int               port;
+  private final File              tokenFile;
+  private final String            token;
+  private final ExecutorService   workers;
+  private ServerSocket            server;
+  private Thread                  acceptor;
+
+  /**
+   * @param port the loopback port to listen on (0 for any)
+   * @param workers how many commands may run at once
+   * @param tokenFile where the port and token are written for clients
+   */
+  public ToolDaemon(final WorkflowStatusLog log, final Command command, final int port, final int workers, final File tokenFile) {
+    this.log = log;
+    this.command = command;
+    this.port = port;
+    this.tokenFile = tokenFile;
+    final byte[] secret = new byte[16];
+    new SecureRandom().nextBytes(secret);
+    this.token = BinaryUtils.toHex(secret);
+    this.workers = Executors.newFixedThreadPool(workers, daemons("daemon-worker-"));
+  }
+
+  /**
+   * listen, then publish the port and token
+   */
+  public synchronized void start() throws IOException {
+    server = new ServerSocket();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 64);
+    writeTokenFile();
+    acceptor = daemons("daemon-acceptor-").newThread(this::accept);
+    acceptor.start();
+    log.event(Level.INFO, "daemon", "listening", "port", port(), "token", tokenFile.getPath());
+  }
+
+  /**
+   * stop taking commands; commands which are running are interrupted
+   */
+  public synchronized void stop() throws IOException {
+    if (!tokenFile.delete()) {
+      log.event(Level.WARN, "daemon", "unable to remove the token file", "file", tokenFile.getPath());
+    }
+    server.close();
+    workers.shutdownNow();
+  }
+
+  /**
+   * @return the port we are listening on
+   */
+  public int port() {
+    return server.getLocalPort();
+  }
+
+  /**
+   * hand each connection to a worker until the socket is closed
+   */
+  private void accept() {
+    while (!server.isClosed()) {
+      try {
+        final Socket socket = server.accept();
+        workers.execute(() -> serve(socket));
+      } catch (final SocketException e) {
+        // closed by stop
+      } catch (final Exception e) {
+        log.event(Level.ERROR, "daemon", "accept failed", "error", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * read a single command, run it, and stream its output back
+   */
+  private void serve(final Socket socket) {
+    try (Socket client = socket) {
+      final BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+      final PrintStream out = new PrintStream(client.getOutputStream(), true, "UTF-8");
+      if (!token.equals(in.readLine())) {
+        log.event(Level.WARN, "daemon", "rejected a client without the token");
+        out.print(EXIT_MARKER + "2\n");
+        return;
+      }
+      final File cwd = new File(in.readLine());
+      if (!cwd.isAbsolute()) {
+        throw new IllegalArgumentException("the client's directory must be absolute: " + cwd);
+      }
+      final String[] args = new String[Integer.parseInt(in.readLine().trim())];
+      for (int k = 0; k < args.length; k++) {
+        args[k] = in.readLine();
+      }
+      final long started = System.currentTimeMillis();
+      int code = 0;
+      try {
+        command.run(args, cwd, out);
+      } catch (final Exception e) {
+        out.println("ERROR " + e.getClass().getSimpleName() + ":" + e.getMessage());
+        code = 1;
+      }
+      log.event(Level.INFO, "daemon", "command", "command", args.length > 0 ? args[0] : "", "exit", code, "ms", System.currentTimeMillis() - started);
+      out.print(EXIT_MARKER + code + "\n");
+      out.flush();
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "daemon", "client failed", "error", e.getMessage());
+    }
+  }
+
+  /**
+   * write "{port} {token}" to a file only we may read
+   */
+  private void writeTokenFile() throws IOException {
+    tokenFile.delete();
+    if (!tokenFile.createNewFile() || !tokenFile.setReadable(false, false) || !tokenFile.setReadable(true, true) || !tokenFile.setWritable(false, false) || !tokenFile.setWritable(true, true)) {
+      throw new IOException("unable to make " + tokenFile + " private");
+    }
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(tokenFile), StandardCharsets.UTF_8)) {
+      writer.write(port() + " " + token + "\n");
+    }
+  }
+
+  private static ThreadFactory daemons(final String prefix) {
+    final AtomicInteger count = new AtomicInteger(0);
+    return (r) -> {
+      final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -2,13 +2,47 @@ package io.jeffrey.swam;
 
 /**
  * Defines how we capture status from a workflow; should not be directly parsable, but it is useful for debugging
- * 
+ *
  * @author jeffrey
  */
 public interface WorkflowStatusLog {
 
+  /**
+   * how important is an event
+   */
+  public static enum Level {
+    DEBUG, INFO, WARN, ERROR
+  }
+
   /**
    * log various apsects
    */
   public void log(String... lineParts);
+
+  /**
+   * @return whether events at the given level are kept; check this before building anything expensive to log
+   */
+  public default boolean isEnabled(final Level level) {
+    return true;
+  }
+
+  /**
+   * log a structured event
+   *
+   * @param stage where the event came from (i.e. needsAsset)
+   * @param message what happened
+   * @param keyValues alternating keys and values; values are only turned into strings if the event is kept
+   */
+  public default void event(final Level level, final String stage, final String message, final Object... keyValues) {
+    if (!isEnabled(level)) {
+      return;
+    }
+    final String[] parts = new String[2 + keyValues.length / 2];
+    parts[0] = stage;
+    parts[1] = message;
+    for (int k = 0; k + 1 < keyValues.length; k += 2) {
+      parts[2 + k / 2] = keyValues[k] + "=" + keyValues[k + 1];
+    }
+    log(parts);
+  }
 }
@@ -0,0 +1,261 @@
+package io.jeffrey.swam.amazon;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.jeffrey.swam.metrics.Metrics;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * A token bucket which paces the calls to a single service. When the service pushes back with a throttling error, the
+ * rate is cut in half and the call is retried after a jittered exponential backoff; every success then recovers a
+ * little of the rate until it is back at the configured maximum (additive increase, multiplicative decrease).
+ * <p>
+ * A call whose body is a stream (i.e. a PutObjectRequest over an InputStream) is only retried if the stream can be
+ * rewound to where it started; otherwise the throttle is thrown rather than sending a truncated body. Calls of an async
+ * client are paced but not retried here since their failures arrive later through the future; instead the async
+ * clients are configured (see UniverseSettings.toAsyncClientConfiguration) to retry a throttle within the SDK and to
+ * report it to onThrottle, so the limiter still backs off.
+ *
+ * @author jeffrey
+ */
+public class AdaptiveRateLimiter {
+  /** the error codes the various services use to say slow down */
+  private static final HashSet<String> THROTTLING_CODES = new HashSet<>(Arrays.asList( //
+      "Throttling", "ThrottlingException", "PriorRequestNotComplete", "SlowDown", "RequestLimitExceeded", "TooManyRequestsException"));
+
+  /** methods on the client interfaces which do not talk to the service */
+  private static final HashSet<String> LOCAL_METHODS = new HashSet<>(Arrays.asList( //
+      "shutdown", "setEndpoint", "setRegion", "setS3ClientOptions", "getCachedResponseMetadata", "getRegion"));
+
+  private final String  name;
+  private final double  maxRate;
+  private final double  minRate;
+  private final int     maxThrottleRetries;
+  private final Metrics metrics;
+  private double        rate;
+  private double        tokens;
+  private long          lastRefill;
+
+  private final AtomicLong calls       = new AtomicLong(0);
+  private final AtomicLong waits       = new AtomicLong(0);
+  private final AtomicLong waitedNanos = new AtomicLong(0);
+  private final AtomicLong throttles   = new AtomicLong(0);
+
+  /**
+   * @param name the service (for reporting)
+   * @param maxRate the sustained requests per second we aim for
+   * @param maxThrottleRetries how many times a throttled call is retried before giving up
+   * @param metrics where the latency of each operation (i.e. route53.listHostedZones) and the throttles are recorded
+   */
+  public AdaptiveRateLimiter(final String name, final double maxRate, final int maxThrottleRetries, final Metrics metrics) {
+    this.name = name;
+    this.metrics = metrics;
+    this.maxRate = maxRate;
+    this.minRate = Math.max(0.1, maxRate / 32);
+    this.maxThrottleRetries = maxThrottleRetries;
+    this.rate = maxRate;
+    this.tokens = 1;
+    this.lastRefill = System.nanoTime();
+  }
+
+  /**
+   * wrap the client so that every call to the service goes through this limiter
+   */
+  public <T> T wrap(final Class<T> api, final T client) {
+    final InvocationHandler handler = (proxy, method, args) -> {
+      if (method.getDeclaringClass() == Object.class || LOCAL_METHODS.contains(method.getName())) {
+        return invoke(client, method, args);
+      }
+      return call(client, method, args);
+    };
+    return api.cast(Proxy.newProxyInstance(api.getClassLoader(), new Class<?>[] { api }, handler));
+  }
+
+  /**
+   * block until the bucket lets another call through
+   */
+  public void acquire() throws InterruptedException {
+    final long waitNanos;
+    synchronized (this) {
+      refill();
+      tokens -= 1;
+      waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+    }
+    calls.incrementAndGet();
+    if (waitNanos > 0) {
+      waits.incrementAndGet();
+      waitedNanos.addAndGet(waitNanos);
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * the service said slow down; halve the rate and drain the bucket
+   */
+  public synchronized void onThrottle() {
+    throttles.incrementAndGet();
+    refill();
+    rate = Math.max(minRate, rate / 2);
+    tokens = Math.min(tokens, 0);
+  }
+
+  /**
+   * the service was happy; creep the rate back up
+   */
+  public synchronized void onSuccess() {
+    if (rate < maxRate) {
+      refill();
+      rate = Math.min(maxRate, rate + maxRate / 50);
+    }
+  }
+
+  /**
+   * @return whether the failure is the service asking us to slow down
+   */
+  public static boolean isThrottle(final Throwable failure) {
+    if (!(failure instanceof AmazonServiceException)) {
+      return false;
+    }
+    final AmazonServiceException ase = (AmazonServiceException) failure;
+    return THROTTLING_CODES.contains(ase.getErrorCode()) || ase.getStatusCode() == 429;
+  }
+
+  public long calls() {
+    return calls.get();
+  }
+
+  public long waits() {
+    return waits.get();
+  }
+
+  public long waitedMs() {
+    return TimeUnit.NANOSECONDS.toMillis(waitedNanos.get());
+  }
+
+  public long throttles() {
+    return throttles.get();
+  }
+
+  public synchronized double currentRate() {
+    return rate;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return name + "[calls=" + calls() + " waits=" + waits() + " waited=" + waitedMs() + "ms throttles=" + throttles() + " rate=" + String.format("%.2f", currentRate()) + "/s]";
+  }
+
+  /**
+   * pace the call, and back off + retry when throttled
+   */
+  private Object call(final Object client, final Method method, final Object[] args) throws Throwable {
+    if (Future.class.isAssignableFrom(method.getReturnType())) {
+      // an async call; its client retries a throttle itself and reports it back through onThrottle
+      acquire();
+      return invoke(client, method, args);
+    }
+    final String operation = name + "." + method.getName();
+    final InputStream body = body(args);
+    if (body != null && body.markSupported()) {
+      body.mark(Integer.MAX_VALUE);
+    }
+    int attempt = 0;
+    while (true) {
+      final long waiting = System.nanoTime();
+      acquire();
+      metrics.record(name + ".limiter.wait", waiting, false);
+      final long started = System.nanoTime();
+      try {
+        final Object result = invoke(client, method, args);
+        metrics.record(operation, started, false);
+        onSuccess();
+        return result;
+      } catch (final AmazonServiceException failure) {
+        metrics.record(operation, started, true);
+        if (!isThrottle(failure) || attempt >= maxThrottleRetries || !rewind(body)) {
+          throw failure;
+        }
+        metrics.increment(operation + ".throttles");
+        metrics.increment(operation + ".retries");
+        onThrottle();
+        final long backoff = Math.min(10000, 100L << attempt);
+        Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+        attempt++;
+      }
+    }
+  }
+
+  /**
+   * @return the stream the request's body is read from, or null if the body is not a stream (i.e. it is a file, which
+   *         is opened again by each attempt)
+   */
+  private static InputStream body(final Object[] args) {
+    if (args == null) {
+      return null;
+    }
+    for (final Object arg : args) {
+      if (arg instanceof PutObjectRequest) {
+        return ((PutObjectRequest) arg).getInputStream();
+      }
+      if (arg instanceof UploadPartRequest) {
+        return ((UploadPartRequest) arg).getInputStream();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return whether the body (if any) is back where it was before the first attempt, so the call may be sent again
+   */
+  private static boolean rewind(final InputStream body) {
+    if (body == null) {
+      return true;
+    }
+    if (!body.markSupported()) {
+      return false;
+    }
+    try {
+      body.reset();
+      return true;
+    } catch (final IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * call through to the real client, unwrapping the reflection wrapper
+   */
+  private static Object invoke(final Object client, final Method method, final Object[] args) throws Throwable {
+    try {
+      return method.invoke(client, args);
+    } catch (final InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * bring the tokens up to date; at most one second worth of tokens are banked
+   */
+  private void refill() {
+    final long now = System.nanoTime();
+    tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+    lastRefill = now;
+  }
+}
@@ -0,0 +1,159 @@
+package io.jeffrey.swam.amazon;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
+
+/**
+ * Uploads public assets by streaming them from disk (or any source of a known length) rather than holding them in
+ * memory. Anything above the multipart threshold is split into parts which upload in parallel. The transfer manager
+ * only uploads the parts of a file in parallel (a stream is read one part at a time), so a large stream or channel is
+ * first spooled to a temporary file.
+ *
+ * @author jeffrey
+ */
+public class AssetUploader {
+  /** the user metadata key where we keep the hex md5 of the content since multipart ETags are not md5s */
+  public static final String MD5_METADATA = "content-md5-hex";
+
+  private final AmazonS3  s3;
+  private final long      multipartThreshold;
+  private final int       threads;
+  private TransferManager transfers;
+
+  /**
+   * @param s3 where the assets go
+   * @param multipartThreshold assets of at least this many bytes are uploaded in parallel parts
+   * @param threads how many parts may upload at once (across every upload)
+   */
+  public AssetUploader(final AmazonS3 s3, final long multipartThreshold, final int threads) {
+    this.s3 = s3;
+    this.multipartThreshold = multipartThreshold;
+    this.threads = threads;
+    this.transfers = null;
+  }
+
+  /**
+   * upload a file; the file is streamed from disk
+   *
+   * @param md5Hex the md5 of the file if known (so a later sync can recognize it), may be null
+   */
+  public void upload(final String bucket, final String key, final File file, final String md5Hex) throws Exception {
+    final PutObjectRequest request = new PutObjectRequest(bucket, key, file);
+    if (md5Hex != null) {
+      final ObjectMetadata metadata = new ObjectMetadata();
+      metadata.addUserMetadata(MD5_METADATA, md5Hex);
+      request.setMetadata(metadata);
+    }
+    upload(request);
+  }
+
+  /**
+   * upload the given number of bytes from the stream; the stream is not buffered in memory (a stream above the multipart
+   * threshold is spooled to a temporary file so its parts can go up in parallel)
+   */
+  public void upload(final String bucket, final String key, final InputStream stream, final long length, final String contentType) throws Exception {
+    final ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(length);
+    if (contentType != null) {
+      metadata.setContentType(contentType);
+    }
+    upload(new PutObjectRequest(bucket, key, stream, metadata));
+  }
+
+  /**
+   * upload the remainder of the channel (from its position to its end)
+   */
+  public void upload(final String bucket, final String key, final FileChannel channel, final String contentType) throws Exception {
+    upload(bucket, key, Channels.newInputStream(channel), channel.size() - channel.position(), contentType);
+  }
+
+  /**
+   * stop the upload threads; the S3 client is left alone since others share it
+   */
+  public synchronized void shutdown() {
+    if (transfers != null) {
+      transfers.shutdownNow(false);
+      transfers = null;
+    }
+  }
+
+  /**
+   * upload the request as public and block until done
+   */
+  public void upload(final PutObjectRequest request) throws Exception {
+    request.setCannedAcl(CannedAccessControlList.PublicRead);
+    final long length = request.getMetadata() == null ? -1 : request.getMetadata().getContentLength();
+    if (request.getFile() != null || request.getInputStream() == null || length < multipartThreshold) {
+      transfers().upload(request).waitForCompletion();
+      return;
+    }
+    final File spool = Files.createTempFile("swam-asset-", ".spool").toFile();
+    try {
+      try (InputStream stream = request.getInputStream()) {
+        spool(stream, length, spool);
+      }
+      request.setInputStream(null);
+      request.setFile(spool);
+      transfers().upload(request).waitForCompletion();
+    } finally {
+      if (!spool.delete()) {
+        spool.deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * copy exactly length bytes of the stream into the file
+   */
+  private static void spool(final InputStream stream, final long length, final File file) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      final byte[] buffer = new byte[64 * 1024];
+      long remaining = length;
+      while (remaining > 0) {
+        final int read = stream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+        if (read < 0) {
+          throw new EOFException("the stream ended " + remaining + " bytes short of " + length);
+        }
+        out.write(buffer, 0, read);
+        remaining -= read;
+      }
+    }
+  }
+
+  /**
+   * the transfer manager is made on first use so runs which never upload never start threads
+   */
+  private synchronized TransferManager transfers() {
+    if (transfers == null) {
+      final AtomicInteger count = new AtomicInteger(0);
+      final ExecutorService workers = Executors.newFixedThreadPool(threads, (r) -> {
+        final Thread thread = new Thread(r, "asset-uploader-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+      final TransferManagerConfiguration configuration = new TransferManagerConfiguration();
+      configuration.setMultipartUploadThreshold(multipartThreshold);
+      configuration.setMinimumUploadPartSize(Math.max(5L * 1024 * 1024, multipartThreshold / 4));
+      transfers = new TransferManager(s3, workers);
+      transfers.setConfiguration(configuration);
+    }
+    return transfers;
+  }
+}
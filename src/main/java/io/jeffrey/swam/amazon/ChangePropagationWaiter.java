@@ -0,0 +1,153 @@
+package io.jeffrey.swam.amazon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.ChangeStatus;
+import com.amazonaws.services.route53.model.GetChangeRequest;
+
+/**
+ * Waits for Route53 changes to reach INSYNC. Every pending change is tracked in one table and polled by a single
+ * shared timer, each change backing off on its own schedule; since batched records share a change id, a whole batch of
+ * domains costs one GetChange per poll rather than one busy loop per domain.
+ *
+ * @author jeffrey
+ */
+public class ChangePropagationWaiter {
+
+  /**
+   * a change we are waiting on
+   */
+  private static class Pending {
+    private final CompletableFuture<Void> future;
+    private final long                    deadline;
+    private long                          nextPollAt;
+    private long                          intervalMs;
+
+    private Pending(final long now, final long firstPollMs, final long timeoutMs) {
+      this.future = new CompletableFuture<>();
+      this.deadline = now + timeoutMs;
+      this.nextPollAt = now + firstPollMs;
+      this.intervalMs = firstPollMs;
+    }
+  }
+
+  private final AmazonRoute53                      route53;
+  private final long                               firstPollMs;
+  private final long                               maxPollMs;
+  private final long                               timeoutMs;
+  private final ConcurrentHashMap<String, Pending> pending;
+  private final ScheduledExecutorService           timer;
+  private volatile boolean                         stopped;
+
+  /**
+   * @param route53 where the changes were made
+   * @param firstPollMs how long after a change is submitted until we first ask about it (doubling after each ask)
+   * @param maxPollMs the longest we wait between asks about a single change
+   * @param timeoutMs how long until we give up on a change
+   */
+  public ChangePropagationWaiter(final AmazonRoute53 route53, final long firstPollMs, final long maxPollMs, final long timeoutMs) {
+    this.route53 = route53;
+    this.firstPollMs = firstPollMs;
+    this.maxPollMs = maxPollMs;
+    this.timeoutMs = timeoutMs;
+    this.pending = new ConcurrentHashMap<>();
+    this.stopped = false;
+    this.timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+      final Thread thread = new Thread(r, "route53-change-waiter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final long tick = Math.max(100, Math.min(1000, firstPollMs / 2));
+    this.timer.scheduleWithFixedDelay(this::poll, tick, tick, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return a future which completes when the change is INSYNC; waiting on the same change twice shares the polling
+   */
+  public CompletableFuture<Void> await(final String changeId) {
+    final Pending change = pending.computeIfAbsent(changeId, (id) -> new Pending(System.currentTimeMillis(), firstPollMs, timeoutMs));
+    if (stopped) {
+      // nobody is polling anymore, so fail rather than hang
+      cancelAll();
+    }
+    return change.future;
+  }
+
+  /**
+   * @return a future which completes when every change is INSYNC
+   */
+  public CompletableFuture<Void> awaitAll(final Collection<String> changeIds) {
+    final ArrayList<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (final String changeId : changeIds) {
+      futures.add(await(changeId));
+    }
+    return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+  }
+
+  /**
+   * @return how many changes are still propagating
+   */
+  public int size() {
+    return pending.size();
+  }
+
+  /**
+   * stop polling; anything still pending (or awaited later) fails with a CancellationException
+   */
+  public void shutdown() {
+    stopped = true;
+    timer.shutdownNow();
+    cancelAll();
+  }
+
+  /**
+   * fail every pending change
+   */
+  private void cancelAll() {
+    for (final Map.Entry<String, Pending> entry : pending.entrySet()) {
+      if (pending.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().future.completeExceptionally(new CancellationException("stopped waiting on change " + entry.getKey()));
+      }
+    }
+  }
+
+  /**
+   * ask about every change which is due
+   */
+  private void poll() {
+    final long now = System.currentTimeMillis();
+    for (final Map.Entry<String, Pending> entry : pending.entrySet()) {
+      final Pending change = entry.getValue();
+      if (now >= change.deadline) {
+        pending.remove(entry.getKey());
+        change.future.completeExceptionally(new TimeoutException("change " + entry.getKey() + " did not propagate"));
+        continue;
+      }
+      if (now < change.nextPollAt) {
+        continue;
+      }
+      try {
+        final String status = route53.getChange(new GetChangeRequest(entry.getKey())).getChangeInfo().getStatus();
+        if (ChangeStatus.INSYNC.toString().equals(status)) {
+          pending.remove(entry.getKey());
+          change.future.complete(null);
+          continue;
+        }
+      } catch (final RuntimeException failure) {
+        // transient; we will ask again on the next interval (and give up at the deadline)
+      }
+      change.intervalMs = Math.min(maxPollMs, change.intervalMs * 2);
+      change.nextPollAt = System.currentTimeMillis() + change.intervalMs;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package io.jeffrey.swam.amazon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ListHostedZonesRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesResult;
+
+/**
+ * An in-memory index of every hosted zone in the account by name. A single paginated scan fills the index, and then
+ * lookups are memory hits until the index expires or is invalidated. Names are case insensitive, as DNS is.
+ *
+ * @author jeffrey
+ */
+public class HostedZoneIndex {
+  private final AmazonRoute53                            route53;
+  private final long                                     ttlMs;
+  private volatile ConcurrentHashMap<String, HostedZone> byName;
+  private volatile long                                  loadedAt;
+
+  /**
+   * @param route53 where the zones live
+   * @param ttlMs how long a scan is trusted before the next lookup rescans
+   */
+  public HostedZoneIndex(final AmazonRoute53 route53, final long ttlMs) {
+    this.route53 = route53;
+    this.ttlMs = ttlMs;
+    this.byName = null;
+    this.loadedAt = 0;
+  }
+
+  /**
+   * @return the hosted zone for the given domain (without the trailing dot) or null if there isn't one
+   */
+  public HostedZone find(final String domain) {
+    return ensureLoaded().get(key(domain + "."));
+  }
+
+  /**
+   * @return the most specific hosted zone that the domain lives within (i.e. class.io for alice.class.io), or null
+   */
+  public HostedZone findEnclosing(final String domain) {
+    final Map<String, HostedZone> index = ensureLoaded();
+    String candidate = domain.toLowerCase();
+    while (true) {
+      final HostedZone zone = index.get(candidate + ".");
+      if (zone != null) {
+        return zone;
+      }
+      final int dot = candidate.indexOf('.');
+      if (dot < 0) {
+        return null;
+      }
+      candidate = candidate.substring(dot + 1);
+    }
+  }
+
+  /**
+   * record a zone that we just created (or learned about) without rescanning
+   */
+  public void put(final HostedZone zone) {
+    final ConcurrentHashMap<String, HostedZone> current = byName;
+    if (current != null) {
+      current.put(key(zone.getName()), zone);
+    }
+  }
+
+  /**
+   * forget a zone that we just deleted without rescanning
+   */
+  public void remove(final HostedZone zone) {
+    final ConcurrentHashMap<String, HostedZone> current = byName;
+    if (current != null) {
+      current.remove(key(zone.getName()), zone);
+    }
+  }
+
+  /**
+   * forget everything; the next lookup will rescan
+   */
+  public synchronized void invalidate() {
+    byName = null;
+    loadedAt = 0;
+  }
+
+  /**
+   * @return the number of zones known (which will scan if needed)
+   */
+  public int size() {
+    return ensureLoaded().size();
+  }
+
+  /**
+   * scan if we have no index or the index is too old; only one thread scans at a time
+   */
+  private Map<String, HostedZone> ensureLoaded() {
+    ConcurrentHashMap<String, HostedZone> current = byName;
+    if (current != null && System.currentTimeMillis() - loadedAt < ttlMs) {
+      return current;
+    }
+    synchronized (this) {
+      current = byName;
+      if (current != null && System.currentTimeMillis() - loadedAt < ttlMs) {
+        return current;
+      }
+      current = scan();
+      loadedAt = System.currentTimeMillis();
+      byName = current;
+      return current;
+    }
+  }
+
+  /**
+   * page through every hosted zone in the account
+   */
+  private ConcurrentHashMap<String, HostedZone> scan() {
+    final ConcurrentHashMap<String, HostedZone> index = new ConcurrentHashMap<>();
+    final ListHostedZonesRequest request = new ListHostedZonesRequest();
+    while (true) {
+      final ListHostedZonesResult result = route53.listHostedZones(request);
+      for (final HostedZone zone : result.getHostedZones()) {
+        index.put(key(zone.getName()), zone);
+      }
+      if (!result.isTruncated()) {
+        return index;
+      }
+      request.setMarker(result.getNextMarker());
+    }
+  }
+
+  /**
+   * zone names are kept in lower case
+   */
+  private static String key(final String name) {
+    return name.toLowerCase();
+  }
+}
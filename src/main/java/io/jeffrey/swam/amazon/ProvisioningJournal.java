@@ -0,0 +1,260 @@
+package io.jeffrey.swam.amazon;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only local journal of the steps completed for each domain (i.e. the zone id, how a bucket was configured,
+ * which assets and records exist) so that a re-run can skip what is already done rather than rediscover it with a
+ * round trip per step.
+ * <p>
+ * Each entry is [length][crc32][domain \n step \n value] and is forced to disk before the step is considered
+ * journaled. Entries are appended under a lock but forced outside of it, and a single force covers every entry appended
+ * before it, so the writers which arrive while one force is under way share the next (group commit) rather than queue
+ * behind a force each. On open, the file is replayed until the first entry that is short or fails its checksum (a crash mid
+ * write) and the tail is cut off there. A later entry for the same (domain, step) wins, and forgetting a domain appends
+ * a tombstone. Domains are kept in lower case.
+ *
+ * @author jeffrey
+ */
+public class ProvisioningJournal implements AutoCloseable {
+  private static final String FORGET = "*forget*";
+  private static final int    HEADER = 8;
+
+  private final ConcurrentHashMap<String, ConcurrentHashMap<String, String>> steps;
+  private final FileChannel                                                  channel;
+  private final CRC32                                                        crc;
+  /** held while forcing; taken before (never after) the lock on the journal */
+  private final Object                                                       forcing;
+  /** the end of the entries appended (guarded by the journal) */
+  private long                                                               written;
+  /** the end of the entries known to be on disk (guarded by forcing) */
+  private long                                                               forced;
+
+  /**
+   * a journal which only lives as long as the process
+   */
+  public ProvisioningJournal() {
+    this.steps = new ConcurrentHashMap<>();
+    this.channel = null;
+    this.crc = new CRC32();
+    this.forcing = new Object();
+  }
+
+  /**
+   * open (or create) the journal at the given file and replay it
+   */
+  public ProvisioningJournal(final File file) throws IOException {
+    this.steps = new ConcurrentHashMap<>();
+    this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.crc = new CRC32();
+    this.forcing = new Object();
+    final long good = replay();
+    if (good < channel.size()) {
+      channel.truncate(good);
+      channel.force(true);
+    }
+    channel.position(good);
+    this.written = good;
+    this.forced = good;
+  }
+
+  /**
+   * @return the value journaled for the step, or null if the step was never completed
+   */
+  public String get(final String domain, final String step) {
+    final Map<String, String> done = steps.get(key(domain));
+    return done == null ? null : done.get(step);
+  }
+
+  /**
+   * @return every step journaled for the domain
+   */
+  public Map<String, String> steps(final String domain) {
+    final Map<String, String> done = steps.get(key(domain));
+    return done == null ? Collections.<String, String> emptyMap() : Collections.unmodifiableMap(done);
+  }
+
+  /**
+   * @return the domains with at least one journaled step
+   */
+  public Set<String> domains() {
+    return Collections.unmodifiableSet(steps.keySet());
+  }
+
+  /**
+   * durably record that the step is done; returns once the entry is on disk
+   */
+  public void record(final String domain, final String step, final String value) throws IOException {
+    write(domain, step, value);
+  }
+
+  /**
+   * durably forget everything about the domain (i.e. it was torn down, or a step failed verification)
+   */
+  public void forget(final String domain) throws IOException {
+    write(domain, FORGET, "");
+  }
+
+  /**
+   * durably forget a single step
+   */
+  public void forget(final String domain, final String step) throws IOException {
+    write(domain, step, null);
+  }
+
+  /**
+   * every entry was forced as it was written, so there is nothing to lose if the close itself fails
+   */
+  @Override
+  public void close() {
+    synchronized (forcing) {
+      synchronized (this) {
+        if (channel != null) {
+          try {
+            channel.close();
+          } catch (final IOException e) {
+            // nothing to lose
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * append one entry and apply it (so memory and disk agree on the order), then return once it is on disk; a null value
+   * is written as an empty value with the step prefixed by '-'
+   */
+  private void write(final String domain, final String step, final String value) throws IOException {
+    final long end;
+    synchronized (this) {
+      if (channel != null) {
+        append(key(domain), step, value);
+      }
+      apply(domain, step, value);
+      end = written;
+    }
+    if (channel != null) {
+      force(end);
+    }
+  }
+
+  /**
+   * return once everything up to the given end is on disk; the force covers every entry appended so far, so the
+   * writers waiting behind it usually find their entries already forced
+   */
+  private void force(final long end) throws IOException {
+    synchronized (forcing) {
+      if (forced >= end) {
+        return;
+      }
+      final long upTo;
+      synchronized (this) {
+        upTo = written;
+      }
+      channel.force(false);
+      forced = upTo;
+    }
+  }
+
+  /**
+   * domains are case insensitive, so Alice.com and alice.com share their steps (even within an older journal)
+   */
+  private static String key(final String domain) {
+    return domain.toLowerCase();
+  }
+
+  private void append(final String domain, final String step, final String value) throws IOException {
+    final String body = domain + "\n" + (value == null ? "-" + step : step) + "\n" + (value == null ? "" : value);
+    final byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+    crc.reset();
+    crc.update(payload, 0, payload.length);
+    final ByteBuffer buffer = ByteBuffer.allocate(HEADER + payload.length);
+    buffer.putInt(payload.length);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(payload);
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    written = channel.position();
+  }
+
+  /**
+   * apply an entry to the in-memory view
+   */
+  private void apply(final String entryDomain, final String step, final String value) {
+    final String domain = key(entryDomain);
+    if (FORGET.equals(step)) {
+      steps.remove(domain);
+      return;
+    }
+    if (value == null) {
+      final Map<String, String> done = steps.get(domain);
+      if (done != null) {
+        done.remove(step);
+      }
+      return;
+    }
+    steps.computeIfAbsent(domain, (d) -> new ConcurrentHashMap<>()).put(step, value);
+  }
+
+  /**
+   * read every intact entry from the start of the file
+   *
+   * @return the offset just past the last intact entry
+   */
+  private long replay() throws IOException {
+    final long size = channel.size();
+    final ByteBuffer header = ByteBuffer.allocate(HEADER);
+    long offset = 0;
+    while (offset + HEADER <= size) {
+      header.clear();
+      readFully(header, offset);
+      header.flip();
+      final int length = header.getInt();
+      final int expected = header.getInt();
+      if (length < 0 || offset + HEADER + length > size) {
+        break;
+      }
+      final ByteBuffer payload = ByteBuffer.allocate(length);
+      readFully(payload, offset + HEADER);
+      crc.reset();
+      crc.update(payload.array(), 0, length);
+      if ((int) crc.getValue() != expected) {
+        break;
+      }
+      final String[] parts = new String(payload.array(), StandardCharsets.UTF_8).split("\n", 3);
+      if (parts.length != 3) {
+        break;
+      }
+      if (parts[1].startsWith("-")) {
+        apply(parts[0], parts[1].substring(1), null);
+      } else {
+        apply(parts[0], parts[1], parts[2]);
+      }
+      offset += HEADER + length;
+    }
+    return offset;
+  }
+
+  private void readFully(final ByteBuffer buffer, final long at) throws IOException {
+    long position = at;
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0) {
+        return;
+      }
+      position += read;
+    }
+  }
+}
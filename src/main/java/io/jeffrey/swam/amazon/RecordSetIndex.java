@@ -0,0 +1,179 @@
+package io.jeffrey.swam.amazon;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+
+/**
+ * Snapshots of the record sets within hosted zones indexed by (name, type). A zone is loaded with a fully paginated
+ * listing the first time it is asked about, and then kept in sync as we add records to it; existence checks become
+ * memory hits no matter how many records the zone has. A snapshot is reloaded once it is older than its ttl, so records
+ * changed outside of this process are noticed eventually, and lookup reads a single record set straight from Route53
+ * when eventually is not good enough.
+ *
+ * @author jeffrey
+ */
+public class RecordSetIndex {
+
+  /**
+   * the records of a single zone
+   */
+  private static class Snapshot {
+    private volatile ConcurrentHashMap<String, ResourceRecordSet> byKey    = new ConcurrentHashMap<>();
+    /** where a reload gathers the zone, so the sets we change meanwhile are not lost when it is swapped in */
+    private volatile ConcurrentHashMap<String, ResourceRecordSet> loading  = null;
+    private volatile long                                         loadedAt = 0;
+  }
+
+  private final AmazonRoute53                       route53;
+  private final long                                ttlMs;
+  private final ConcurrentHashMap<String, Snapshot> snapshots;
+
+  /**
+   * @param route53 where the zones live
+   * @param ttlMs how long a snapshot is trusted before the next lookup reloads the zone
+   */
+  public RecordSetIndex(final AmazonRoute53 route53, final long ttlMs) {
+    this.route53 = route53;
+    this.ttlMs = ttlMs;
+    this.snapshots = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * stream every record set in the zone, one page at a time, without holding onto them
+   */
+  public void forEach(final String hostedZoneId, final Consumer<ResourceRecordSet> consumer) {
+    final ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest();
+    request.setHostedZoneId(hostedZoneId);
+    while (true) {
+      final ListResourceRecordSetsResult result = route53.listResourceRecordSets(request);
+      for (final ResourceRecordSet set : result.getResourceRecordSets()) {
+        consumer.accept(set);
+      }
+      if (!Boolean.TRUE.equals(result.isTruncated())) {
+        return;
+      }
+      request.setStartRecordName(result.getNextRecordName());
+      request.setStartRecordType(result.getNextRecordType());
+      request.setStartRecordIdentifier(result.getNextRecordIdentifier());
+    }
+  }
+
+  /**
+   * @param name the record name (with or without the trailing dot)
+   * @param type the record type (i.e. "a" or "CNAME")
+   * @return the record set of the given name and type within the zone, or null if there isn't one
+   */
+  public ResourceRecordSet find(final String hostedZoneId, final String name, final String type) {
+    return ensureLoaded(hostedZoneId).byKey.get(key(name, type));
+  }
+
+  /**
+   * read the record set of the given name and type from Route53 itself (a listing of a single set) rather than the
+   * snapshot, and bring the snapshot in line with what was read
+   *
+   * @return the record set, or null if there isn't one
+   */
+  public ResourceRecordSet lookup(final String hostedZoneId, final String name, final String type) {
+    final String key = key(name, type);
+    final ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest(hostedZoneId);
+    request.setStartRecordName(name.endsWith(".") ? name : name + ".");
+    request.setStartRecordType(type.toUpperCase());
+    request.setMaxItems("1");
+    ResourceRecordSet found = null;
+    for (final ResourceRecordSet set : route53.listResourceRecordSets(request).getResourceRecordSets()) {
+      if (key.equals(key(set.getName(), set.getType()))) {
+        found = set;
+      }
+      break;
+    }
+    if (found != null) {
+      put(hostedZoneId, found);
+    } else {
+      remove(hostedZoneId, key);
+    }
+    return found;
+  }
+
+  /**
+   * record a set that we just added to the zone so the snapshot stays in sync
+   */
+  public void put(final String hostedZoneId, final ResourceRecordSet set) {
+    final Snapshot snapshot = snapshots.get(hostedZoneId);
+    if (snapshot != null) {
+      final String key = key(set.getName(), set.getType());
+      snapshot.byKey.put(key, set);
+      final Map<String, ResourceRecordSet> loading = snapshot.loading;
+      if (loading != null) {
+        loading.put(key, set);
+      }
+    }
+  }
+
+  /**
+   * record a set that we just removed from the zone so the snapshot stays in sync
+   */
+  public void remove(final String hostedZoneId, final ResourceRecordSet set) {
+    remove(hostedZoneId, key(set.getName(), set.getType()));
+  }
+
+  /**
+   * forget the zone; the next lookup will reload it
+   */
+  public void invalidate(final String hostedZoneId) {
+    snapshots.remove(hostedZoneId);
+  }
+
+  private void remove(final String hostedZoneId, final String key) {
+    final Snapshot snapshot = snapshots.get(hostedZoneId);
+    if (snapshot != null) {
+      snapshot.byKey.remove(key);
+      final Map<String, ResourceRecordSet> loading = snapshot.loading;
+      if (loading != null) {
+        loading.remove(key);
+      }
+    }
+  }
+
+  /**
+   * load the zone if it has not been loaded (or the snapshot is too old); only one thread loads a given zone, and the
+   * others wait for it rather than read a stale snapshot
+   */
+  private Snapshot ensureLoaded(final String hostedZoneId) {
+    final Snapshot snapshot = snapshots.computeIfAbsent(hostedZoneId, (id) -> new Snapshot());
+    if (fresh(snapshot)) {
+      return snapshot;
+    }
+    synchronized (snapshot) {
+      if (!fresh(snapshot)) {
+        final ConcurrentHashMap<String, ResourceRecordSet> loading = new ConcurrentHashMap<>();
+        snapshot.loading = loading;
+        try {
+          forEach(hostedZoneId, (set) -> loading.putIfAbsent(key(set.getName(), set.getType()), set));
+          snapshot.byKey = loading;
+          snapshot.loadedAt = System.currentTimeMillis();
+        } finally {
+          snapshot.loading = null;
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private boolean fresh(final Snapshot snapshot) {
+    return snapshot.loadedAt > 0 && System.currentTimeMillis() - snapshot.loadedAt < ttlMs;
+  }
+
+  /**
+   * normalize a (name, type) pair into a key
+   */
+  private static String key(final String name, final String type) {
+    final String dotted = name.endsWith(".") ? name : name + ".";
+    return dotted.toLowerCase() + "|" + type.toUpperCase();
+  }
+}
@@ -0,0 +1,242 @@
+package io.jeffrey.swam.amazon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.InvalidChangeBatchException;
+import com.amazonaws.services.route53.model.ResourceRecord;
+
+/**
+ * Coalesces record changes per hosted zone so that many records (across many domains) go out as one
+ * ChangeResourceRecordSets call instead of one call per record. Changes linger briefly so concurrent workflows can join
+ * the same batch, and a batch is flushed early once it reaches Route53's per-request limits (where an UPSERT counts
+ * twice, as Route53 counts it). The linger timer only decides when a batch goes; the batch is sent on an executor so
+ * one slow zone does not hold up every other zone's batches.
+ *
+ * @author jeffrey
+ */
+public class Route53ChangeBatcher {
+  /** Route53 accepts at most this many ResourceRecord elements per request */
+  public static final int MAX_RECORDS_PER_BATCH = 1000;
+
+  /** Route53 accepts at most this many characters of record values per request */
+  public static final int MAX_VALUE_CHARS_PER_BATCH = 32000;
+
+  /**
+   * a change waiting for its batch to go out
+   */
+  private static class Pending {
+    private final Change                        change;
+    private final CompletableFuture<ChangeInfo> future;
+    private final int                           records;
+    private final int                           chars;
+
+    private Pending(final Change change) {
+      this.change = change;
+      this.future = new CompletableFuture<>();
+      int records = 0;
+      int chars = 0;
+      final List<ResourceRecord> rrs = change.getResourceRecordSet().getResourceRecords();
+      if (rrs != null) {
+        for (final ResourceRecord rr : rrs) {
+          records++;
+          chars += rr.getValue().length();
+        }
+      }
+      // an UPSERT is a delete and a create as far as the limits are concerned
+      final int weight = ChangeAction.UPSERT.toString().equals(change.getAction()) ? 2 : 1;
+      this.records = weight * Math.max(1, records);
+      this.chars = weight * chars;
+    }
+  }
+
+  /**
+   * the changes gathered so far for a single zone
+   */
+  private static class ZoneQueue {
+    private final ArrayList<Pending> pending   = new ArrayList<>();
+    private int                      records   = 0;
+    private int                      chars     = 0;
+    private boolean                  scheduled = false;
+
+    private boolean fits(final Pending next) {
+      return records + next.records <= MAX_RECORDS_PER_BATCH && chars + next.chars <= MAX_VALUE_CHARS_PER_BATCH;
+    }
+  }
+
+  private final AmazonRoute53              route53;
+  private final long                       lingerMs;
+  private final Executor                   sender;
+  private final ScheduledExecutorService   timer;
+  private final HashMap<String, ZoneQueue> queues;
+  /** once stopped, nothing lingers; a change goes out as it is submitted (guarded by queues) */
+  private boolean                          stopped;
+
+  /**
+   * @param route53 where the changes go
+   * @param lingerMs how long a change waits for company before its batch is sent
+   * @param sender where batches are sent from (the caller owns it)
+   */
+  public Route53ChangeBatcher(final AmazonRoute53 route53, final long lingerMs, final Executor sender) {
+    this.route53 = route53;
+    this.lingerMs = lingerMs;
+    this.sender = sender;
+    this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "route53-change-batcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.queues = new HashMap<>();
+    this.stopped = false;
+  }
+
+  /**
+   * queue the change for the given zone
+   *
+   * @return the change info of the batch that carried the change
+   */
+  public CompletableFuture<ChangeInfo> submit(final String hostedZoneId, final Change change) {
+    final Pending next = new Pending(change);
+    List<Pending> full = null;
+    final boolean late;
+    synchronized (queues) {
+      ZoneQueue queue = queues.get(hostedZoneId);
+      if (queue == null) {
+        queue = new ZoneQueue();
+        queues.put(hostedZoneId, queue);
+      }
+      if (!queue.fits(next)) {
+        full = new ArrayList<>(queue.pending);
+        queue.pending.clear();
+        queue.records = 0;
+        queue.chars = 0;
+      }
+      queue.pending.add(next);
+      queue.records += next.records;
+      queue.chars += next.chars;
+      late = stopped;
+      if (!queue.scheduled && !late) {
+        queue.scheduled = true;
+        timer.schedule(() -> dispatch(() -> flush(hostedZoneId)), lingerMs, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (full != null) {
+      final List<Pending> batch = full;
+      dispatch(() -> send(hostedZoneId, batch));
+    }
+    if (late) {
+      flush(hostedZoneId);
+    }
+    return next.future;
+  }
+
+  /**
+   * send whatever is waiting for the given zone right now
+   */
+  public void flush(final String hostedZoneId) {
+    final ArrayList<Pending> batch;
+    synchronized (queues) {
+      final ZoneQueue queue = queues.remove(hostedZoneId);
+      if (queue == null) {
+        return;
+      }
+      batch = queue.pending;
+    }
+    send(hostedZoneId, batch);
+  }
+
+  /**
+   * send everything waiting for every zone right now
+   */
+  public void flushAll() {
+    final ArrayList<String> zoneIds;
+    synchronized (queues) {
+      zoneIds = new ArrayList<>(queues.keySet());
+    }
+    for (final String zoneId : zoneIds) {
+      flush(zoneId);
+    }
+  }
+
+  /**
+   * stop the linger timer (dropping the flushes it has scheduled) and send everything waiting; a change submitted
+   * afterwards is sent right away
+   */
+  public void shutdown() {
+    synchronized (queues) {
+      stopped = true;
+    }
+    timer.shutdownNow();
+    flushAll();
+  }
+
+  /**
+   * run the work on the sender, or right here once the sender no longer takes work (i.e. the universe is shutting
+   * down) so no future is left waiting on a batch which never goes out
+   */
+  private void dispatch(final Runnable work) {
+    try {
+      sender.execute(work);
+    } catch (final RejectedExecutionException e) {
+      work.run();
+    }
+  }
+
+  /**
+   * send a batch; if Route53 rejects the batch as a whole then each change is retried alone so that one bad change
+   * (i.e. a record that already exists) does not fail every other domain in the batch
+   */
+  private void send(final String hostedZoneId, final List<Pending> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      final ChangeInfo info = execute(hostedZoneId, batch);
+      for (final Pending pending : batch) {
+        pending.future.complete(info);
+      }
+    } catch (final InvalidChangeBatchException rejected) {
+      if (batch.size() == 1) {
+        batch.get(0).future.completeExceptionally(rejected);
+        return;
+      }
+      for (final Pending pending : batch) {
+        send(hostedZoneId, Collections.singletonList(pending));
+      }
+    } catch (final RuntimeException failure) {
+      for (final Pending pending : batch) {
+        pending.future.completeExceptionally(failure);
+      }
+    }
+  }
+
+  /**
+   * issue the single request for the batch
+   */
+  private ChangeInfo execute(final String hostedZoneId, final List<Pending> batch) {
+    final ArrayList<Change> changes = new ArrayList<>(batch.size());
+    for (final Pending pending : batch) {
+      changes.add(pending.change);
+    }
+    final ChangeBatch changeBatch = new ChangeBatch();
+    changeBatch.setChanges(changes);
+    final ChangeResourceRecordSetsRequest request = new ChangeResourceRecordSetsRequest();
+    request.setHostedZoneId(hostedZoneId);
+    request.setChangeBatch(changeBatch);
+    return route53.changeResourceRecordSets(request).getChangeInfo();
+  }
+}
@@ -1,8 +1,26 @@
 package io.jeffrey.swam.amazon;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.jeffrey.swam.metrics.Metrics;
+import io.jeffrey.swam.templates.StarterTemplates;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.AmazonRoute53Async;
+import com.amazonaws.services.route53.AmazonRoute53AsyncClient;
 import com.amazonaws.services.route53.AmazonRoute53Client;
 import com.amazonaws.services.route53domains.AmazonRoute53Domains;
+import com.amazonaws.services.route53domains.AmazonRoute53DomainsAsync;
+import com.amazonaws.services.route53domains.AmazonRoute53DomainsAsyncClient;
 import com.amazonaws.services.route53domains.AmazonRoute53DomainsClient;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
@@ -12,13 +30,148 @@ import com.amazonaws.services.s3.AmazonS3Client;
  * @author jeffrey
  */
 public class Universe {
-  public final AmazonRoute53        route53;
-  public final AmazonS3             s3;
-  public final AmazonRoute53Domains domains;
+  public final UniverseSettings          settings;
+  public final AmazonRoute53             route53;
+  public final AmazonS3                  s3;
+  public final AmazonRoute53Domains      domains;
+  /** only present when the settings ask for async clients */
+  public final AmazonRoute53Async        route53Async;
+  /** only present when the settings ask for async clients */
+  public final AmazonRoute53DomainsAsync domainsAsync;
+  public final HostedZoneIndex           zones;
+  public final RecordSetIndex            records;
+  public final Route53ChangeBatcher      changes;
+  public final ChangePropagationWaiter   propagation;
+  public final AssetUploader             uploads;
+  public final ProvisioningJournal       journal;
+  public final StarterTemplates          templates;
+  public final ExecutorService           executor;
+  public final Metrics                   metrics;
+  public final AdaptiveRateLimiter       route53Limiter;
+  public final AdaptiveRateLimiter       s3Limiter;
+  public final AdaptiveRateLimiter       domainsLimiter;
+  private final ExecutorService          asyncExecutor;
+  private final Object[]                 rawClients;
+  private final Object[]                 rawAsyncClients;
 
   public Universe(final Account account) {
-    route53 = new AmazonRoute53Client(account);
-    s3 = new AmazonS3Client(account);
-    domains = new AmazonRoute53DomainsClient(account);
+    this(account, new UniverseSettings());
+  }
+
+  /**
+   * @param settings how to tune the clients, pools and caches
+   */
+  public Universe(final Account account, final UniverseSettings settings) {
+    this(account, settings, settings.toClientConfiguration());
+  }
+
+  /**
+   * a universe over the given clients rather than real ones (i.e. a simulation); there are no async clients
+   *
+   * @param settings how to tune the limiters, pools and caches
+   */
+  public Universe(final UniverseSettings settings, final AmazonRoute53 route53, final AmazonS3 s3, final AmazonRoute53Domains domains) {
+    this(null, settings, route53, s3, domains);
+  }
+
+  private Universe(final Account account, final UniverseSettings settings, final ClientConfiguration configuration) {
+    this(account, settings, new AmazonRoute53Client(account, configuration), new AmazonS3Client(account, configuration), new AmazonRoute53DomainsClient(account, configuration));
+  }
+
+  private Universe(final Account account, final UniverseSettings settings, final AmazonRoute53 rawRoute53, final AmazonS3 rawS3, final AmazonRoute53Domains rawDomains) {
+    this.settings = settings;
+    metrics = new Metrics();
+    route53Limiter = new AdaptiveRateLimiter("route53", settings.route53RatePerSecond, settings.maxThrottleRetries, metrics);
+    s3Limiter = new AdaptiveRateLimiter("s3", settings.s3RatePerSecond, settings.maxThrottleRetries, metrics);
+    domainsLimiter = new AdaptiveRateLimiter("domains", settings.domainsRatePerSecond, settings.maxThrottleRetries, metrics);
+    rawClients = new Object[] { rawRoute53, rawS3, rawDomains };
+    route53 = route53Limiter.wrap(AmazonRoute53.class, rawRoute53);
+    s3 = s3Limiter.wrap(AmazonS3.class, rawS3);
+    domains = domainsLimiter.wrap(AmazonRoute53Domains.class, rawDomains);
+    if (settings.asyncClients && account != null) {
+      asyncExecutor = Executors.newFixedThreadPool(settings.asyncThreads, daemons("universe-async-"));
+      final AmazonRoute53AsyncClient rawRoute53Async = new AmazonRoute53AsyncClient(account, settings.toAsyncClientConfiguration(route53Limiter), asyncExecutor);
+      final AmazonRoute53DomainsAsyncClient rawDomainsAsync = new AmazonRoute53DomainsAsyncClient(account, settings.toAsyncClientConfiguration(domainsLimiter), asyncExecutor);
+      rawAsyncClients = new Object[] { rawRoute53Async, rawDomainsAsync };
+      // the async clients share the limiters of their services, so both paths are paced together
+      route53Async = route53Limiter.wrap(AmazonRoute53Async.class, rawRoute53Async);
+      domainsAsync = domainsLimiter.wrap(AmazonRoute53DomainsAsync.class, rawDomainsAsync);
+    } else {
+      rawAsyncClients = new Object[0];
+      asyncExecutor = null;
+      route53Async = null;
+      domainsAsync = null;
+    }
+    executor = Executors.newCachedThreadPool(daemons("universe-worker-"));
+    zones = new HostedZoneIndex(route53, settings.hostedZoneTtlMs);
+    records = new RecordSetIndex(route53, settings.recordSetTtlMs);
+    changes = new Route53ChangeBatcher(route53, settings.changeLingerMs, executor);
+    propagation = new ChangePropagationWaiter(route53, settings.propagationFirstPollMs, settings.propagationMaxPollMs, settings.propagationTimeoutMs);
+    uploads = new AssetUploader(s3, settings.multipartThreshold, settings.uploadThreads);
+    journal = openJournal(settings);
+    templates = settings.templatePath == null ? new StarterTemplates() : new StarterTemplates(new File(settings.templatePath));
+  }
+
+  /**
+   * flush pending record changes, stop our threads, and release every pooled connection
+   */
+  public void shutdown() throws InterruptedException {
+    changes.shutdown();
+    propagation.shutdown();
+    uploads.shutdown();
+    executor.shutdown();
+    executor.awaitTermination(30, TimeUnit.SECONDS);
+    if (asyncExecutor != null) {
+      for (final Object client : rawAsyncClients) {
+        release(client);
+      }
+      asyncExecutor.shutdown();
+    }
+    for (final Object client : rawClients) {
+      release(client);
+    }
+    journal.close();
+  }
+
+  /**
+   * @return how the rate limiters of each service have fared
+   */
+  public String limiterSummary() {
+    return route53Limiter + " " + s3Limiter + " " + domainsLimiter;
+  }
+
+  /**
+   * the journal is on disk if the settings say where, and in memory otherwise
+   */
+  private static ProvisioningJournal openJournal(final UniverseSettings settings) {
+    if (settings.journalPath == null) {
+      return new ProvisioningJournal();
+    }
+    try {
+      return new ProvisioningJournal(new File(settings.journalPath));
+    } catch (final IOException e) {
+      throw new UncheckedIOException("unable to open the journal at " + settings.journalPath, e);
+    }
+  }
+
+  /**
+   * release the connection pool of a client (if it is a real client)
+   */
+  private static void release(final Object client) {
+    if (client instanceof AmazonWebServiceClient) {
+      ((AmazonWebServiceClient) client).shutdown();
+    }
+  }
+
+  /**
+   * name our threads and don't let them hold the process open
+   */
+  private static ThreadFactory daemons(final String prefix) {
+    final AtomicInteger count = new AtomicInteger(0);
+    return (r) -> {
+      final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 }
@@ -0,0 +1,265 @@
+package io.jeffrey.swam.amazon;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.route53.model.HostedZone;
+
+/**
+ * Many universes (one per AWS account) which together host more sites, and provision them faster, than a single
+ * account can: each account has its own bucket limit and its own Route53 throttle, so capacity and throughput grow with
+ * the number of accounts.
+ * <p>
+ * A site is placed on an account the first time it is asked about and stays there; the placement is kept in a journal
+ * (step "account" of the domain) so a restart, or a new account joining the pool, never moves a site. A site whose
+ * domain lives within a zone that one of the accounts already hosts (i.e. alice.class.io when class.io is hosted) is
+ * placed on that account regardless of the placement, since its records belong in that zone and a zone of its own in
+ * another account would never be delegated to.
+ *
+ * @author jeffrey
+ */
+public class UniversePool {
+  /** the journal step holding the account a site was placed on */
+  public static final String ACCOUNT_STEP = "account";
+
+  /**
+   * How a new site picks its account
+   */
+  public static enum Placement {
+    /** by a hash of the domain (the next account with room if that one is full) */
+    HASH,
+    /** the account with the most room left (relative to its capacity) */
+    LEAST_LOADED
+  }
+
+  /**
+   * A single account within the pool
+   */
+  public static class Shard {
+    public final String         name;
+    public final Universe       universe;
+    /** how many sites the account may host (see UniverseSettings.maxSites) */
+    public final int            capacity;
+    private final AtomicInteger placed;
+
+    private Shard(final String name, final Universe universe, final int capacity) {
+      this.name = name;
+      this.universe = universe;
+      this.capacity = capacity;
+      this.placed = new AtomicInteger(0);
+    }
+
+    /**
+     * @return how many sites are placed on the account
+     */
+    public int placed() {
+      return placed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return name + "=" + placed.get() + "/" + capacity;
+    }
+  }
+
+  private final Map<String, Shard>  shards;
+  private final Placement           placement;
+  private final ProvisioningJournal placements;
+
+  /**
+   * a pool of a single universe (every site lives there, and placements are not kept)
+   */
+  public UniversePool(final Universe universe) {
+    this(Collections.singletonMap("default", universe), Placement.HASH, new ProvisioningJournal());
+  }
+
+  /**
+   * @param universes the universe of each account by name (the order is the order of the hash)
+   * @param placement how a new site picks its account
+   * @param placements where placements are kept (and recovered from)
+   */
+  public UniversePool(final Map<String, Universe> universes, final Placement placement, final ProvisioningJournal placements) {
+    if (universes.isEmpty()) {
+      throw new IllegalArgumentException("a pool needs at least one universe");
+    }
+    this.shards = new LinkedHashMap<>();
+    for (final Map.Entry<String, Universe> entry : universes.entrySet()) {
+      final int capacity = universes.size() == 1 ? Integer.MAX_VALUE : entry.getValue().settings.maxSites;
+      shards.put(entry.getKey(), new Shard(entry.getKey(), entry.getValue(), capacity));
+    }
+    this.placement = placement;
+    this.placements = placements;
+    for (final String domain : placements.domains()) {
+      final Shard shard = shards.get(placements.get(domain, ACCOUNT_STEP));
+      if (shard != null) {
+        shard.placed.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return every account in the pool (in the order of the hash)
+   */
+  public List<Shard> shards() {
+    return Collections.unmodifiableList(new ArrayList<>(shards.values()));
+  }
+
+  /**
+   * @return the first account (where commands which are not about a site run)
+   */
+  public Universe primary() {
+    return shards.values().iterator().next().universe;
+  }
+
+  /**
+   * @return the account the site was placed on (null if it has not been placed)
+   * @throws IllegalStateException if the site was placed on an account which is no longer in the pool
+   */
+  public Shard placed(final String domain) {
+    final String name = placements.get(domain.toLowerCase(), ACCOUNT_STEP);
+    if (name == null) {
+      return null;
+    }
+    final Shard shard = shards.get(name);
+    if (shard == null) {
+      throw new IllegalStateException(domain + " lives on account " + name + " which is not in the pool");
+    }
+    return shard;
+  }
+
+  /**
+   * @return the account the site lives on; a new site is placed (durably) first
+   * @throws IllegalStateException if every account is full, or if the account hosting the site's zone is full
+   */
+  public Shard place(final String domain) throws IOException {
+    final Shard known = placed(domain);
+    if (known != null) {
+      return known;
+    }
+    final Shard hosting = hosting(domain.toLowerCase());
+    synchronized (this) {
+      final Shard raced = placed(domain);
+      if (raced != null) {
+        return raced;
+      }
+      if (hosting != null && hosting.placed.get() >= hosting.capacity) {
+        throw new IllegalStateException("account " + hosting.name + " hosts the zone of " + domain + " but is full " + shards.values());
+      }
+      final Shard shard = hosting != null ? hosting : placement == Placement.HASH ? byHash(domain.toLowerCase()) : leastLoaded();
+      if (shard == null) {
+        throw new IllegalStateException("every account is full " + shards.values());
+      }
+      placements.record(domain.toLowerCase(), ACCOUNT_STEP, shard.name);
+      shard.placed.incrementAndGet();
+      return shard;
+    }
+  }
+
+  /**
+   * place the site on the given account (i.e. a warm pool site, which must live where its pool provisions it)
+   *
+   * @return the account
+   * @throws IllegalStateException if the site already lives elsewhere, or if the account is full
+   */
+  public synchronized Shard pin(final String domain, final Shard shard) throws IOException {
+    final Shard known = placed(domain);
+    if (known != null) {
+      if (known != shard) {
+        throw new IllegalStateException(domain + " already lives on account " + known.name);
+      }
+      return known;
+    }
+    if (shard.placed.get() >= shard.capacity) {
+      throw new IllegalStateException("account " + shard.name + " is full " + shards.values());
+    }
+    placements.record(domain.toLowerCase(), ACCOUNT_STEP, shard.name);
+    shard.placed.incrementAndGet();
+    return shard;
+  }
+
+  /**
+   * forget where the site lives (i.e. it was torn down) so its room can be used again
+   */
+  public synchronized void release(final String domain) throws IOException {
+    final Shard shard = placed(domain);
+    if (shard != null) {
+      placements.forget(domain.toLowerCase());
+      shard.placed.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return how full each account is
+   */
+  public String summary() {
+    return placement + " " + shards.values();
+  }
+
+  /**
+   * shut down every universe and close the placements
+   */
+  public void shutdown() throws InterruptedException {
+    for (final Shard shard : shards.values()) {
+      shard.universe.shutdown();
+    }
+    placements.close();
+  }
+
+  /**
+   * the account hosting the most specific zone which the domain lives within (null if no account hosts one)
+   */
+  private Shard hosting(final String domain) {
+    if (shards.size() == 1) {
+      return null;
+    }
+    Shard best = null;
+    int bestLength = -1;
+    for (final Shard shard : shards.values()) {
+      final HostedZone zone = shard.universe.zones.findEnclosing(domain);
+      if (zone != null && zone.getName().length() > bestLength) {
+        best = shard;
+        bestLength = zone.getName().length();
+      }
+    }
+    return best;
+  }
+
+  /**
+   * the account the domain hashes to, or the next one with room
+   */
+  private Shard byHash(final String domain) {
+    final List<Shard> ordered = new ArrayList<>(shards.values());
+    final int start = Math.floorMod(domain.hashCode(), ordered.size());
+    for (int k = 0; k < ordered.size(); k++) {
+      final Shard shard = ordered.get((start + k) % ordered.size());
+      if (shard.placed.get() < shard.capacity) {
+        return shard;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * the account with the most room relative to its capacity
+   */
+  private Shard leastLoaded() {
+    Shard best = null;
+    double bestLoad = 1.0;
+    for (final Shard shard : shards.values()) {
+      final double load = shard.placed.get() / (double) shard.capacity;
+      if (load < bestLoad) {
+        best = shard;
+        bestLoad = load;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,250 @@
+package io.jeffrey.swam.amazon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryPolicy;
+
+/**
+ * How the clients (and the caches/pools around them) within a Universe are tuned. The defaults are sized for a
+ * classroom worth of concurrent provisioning rather than for a single call.
+ *
+ * @author jeffrey
+ */
+public class UniverseSettings {
+
+  /**
+   * read the settings from disk; lines are key=value (the value may hold '=') with # comments, and missing keys keep
+   * their defaults
+   *
+   * @throws IllegalArgumentException naming the line which is malformed, has an unknown key, or has a bad value
+   */
+  public static UniverseSettings fromDisk(final File file) throws Exception {
+    final UniverseSettings settings = new UniverseSettings();
+    final BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      String ln;
+      int number = 0;
+      while ((ln = reader.readLine()) != null) {
+        number++;
+        ln = ln.trim();
+        if (ln.length() == 0 || ln.charAt(0) == '#') {
+          continue;
+        }
+        final String[] parts = ln.split("=", 2);
+        try {
+          if (parts.length != 2) {
+            throw new IllegalArgumentException("expected key=value");
+          }
+          settings.set(parts[0].trim(), parts[1].trim());
+        } catch (final IllegalArgumentException e) {
+          throw new IllegalArgumentException(file + ":" + number + " " + e.getMessage(), e);
+        }
+      }
+      return settings;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /** the size of the connection pool of each client */
+  public int     maxConnections         = 200;
+
+  /** how long to wait for a connection to be established */
+  public int     connectionTimeoutMs    = 5 * 1000;
+
+  /** how long a socket may sit idle waiting on a response */
+  public int     socketTimeoutMs        = 30 * 1000;
+
+  /** how long a pooled connection may live (-1 is forever) */
+  public long    connectionTtlMs        = 60 * 1000;
+
+  /** keep pooled connections alive at the TCP level */
+  public boolean tcpKeepAlive           = true;
+
+  /** how many times the SDK will retry a failed request (throttled requests are retried by the rate limiter) */
+  public int     maxErrorRetry          = 5;
+
+  /** the sustained Route53 requests per second (Route53 throttles at about 5 per account) */
+  public double  route53RatePerSecond   = 5;
+
+  /** the sustained S3 requests per second */
+  public double  s3RatePerSecond        = 100;
+
+  /** the sustained Route53 Domains requests per second */
+  public double  domainsRatePerSecond   = 1;
+
+  /** how many times a throttled call is retried (with backoff) before it fails */
+  public int     maxThrottleRetries     = 8;
+
+  /** should the asynchronous variants of the clients be created */
+  public boolean asyncClients           = false;
+
+  /** the number of threads behind the asynchronous clients */
+  public int     asyncThreads           = 16;
+
+  /** how long the hosted zone index is trusted */
+  public long    hostedZoneTtlMs        = 5 * 60 * 1000L;
+
+  /** how long the snapshot of a zone's record sets is trusted */
+  public long    recordSetTtlMs         = 5 * 60 * 1000L;
+
+  /** how long a record change waits for company */
+  public long    changeLingerMs         = 200;
+
+  /** how long after a record change until we first ask if it has propagated */
+  public long    propagationFirstPollMs = 2000;
+
+  /** the longest we wait between asking if a change has propagated */
+  public long    propagationMaxPollMs   = 30 * 1000;
+
+  /** how long until we give up on a change propagating */
+  public long    propagationTimeoutMs   = 10 * 60 * 1000L;
+
+  /** assets of at least this many bytes are uploaded in parallel parts */
+  public long    multipartThreshold     = 16L * 1024 * 1024;
+
+  /** how many parts may upload at once */
+  public int     uploadThreads          = 10;
+
+  /** where the provisioning journal lives (null keeps it in memory only) */
+  public String  journalPath            = null;
+
+  /** should journaled steps be confirmed with a cheap read before they are skipped */
+  public boolean journalVerify          = false;
+
+  /** how long a domain journaled as complete is trusted before the next setup confirms every step again (0 is forever) */
+  public long    journalTrustMs         = 60L * 60 * 1000;
+
+  /** a directory of {uri}.hbs templates which new websites start with (null uses the built in starter site) */
+  public String  templatePath           = null;
+
+  /** how many sites the account may host within a pool of accounts (each site is two buckets; S3 allows 100 by default) */
+  public int     maxSites               = 50;
+
+  /**
+   * set a setting by name
+   *
+   * @throws IllegalArgumentException if the name is not a setting (i.e. a typo which would otherwise be ignored)
+   */
+  public void set(final String key, final String value) {
+    switch (key.toLowerCase().replaceAll("_", "")) {
+      case "maxconnections":
+        maxConnections = Integer.parseInt(value);
+        break;
+      case "connectiontimeoutms":
+        connectionTimeoutMs = Integer.parseInt(value);
+        break;
+      case "sockettimeoutms":
+        socketTimeoutMs = Integer.parseInt(value);
+        break;
+      case "connectionttlms":
+        connectionTtlMs = Long.parseLong(value);
+        break;
+      case "tcpkeepalive":
+        tcpKeepAlive = Boolean.parseBoolean(value);
+        break;
+      case "maxerrorretry":
+        maxErrorRetry = Integer.parseInt(value);
+        break;
+      case "route53ratepersecond":
+        route53RatePerSecond = Double.parseDouble(value);
+        break;
+      case "s3ratepersecond":
+        s3RatePerSecond = Double.parseDouble(value);
+        break;
+      case "domainsratepersecond":
+        domainsRatePerSecond = Double.parseDouble(value);
+        break;
+      case "maxthrottleretries":
+        maxThrottleRetries = Integer.parseInt(value);
+        break;
+      case "asyncclients":
+        asyncClients = Boolean.parseBoolean(value);
+        break;
+      case "asyncthreads":
+        asyncThreads = Integer.parseInt(value);
+        break;
+      case "hostedzonettlms":
+        hostedZoneTtlMs = Long.parseLong(value);
+        break;
+      case "recordsetttlms":
+        recordSetTtlMs = Long.parseLong(value);
+        break;
+      case "changelingerms":
+        changeLingerMs = Long.parseLong(value);
+        break;
+      case "propagationfirstpollms":
+        propagationFirstPollMs = Long.parseLong(value);
+        break;
+      case "propagationmaxpollms":
+        propagationMaxPollMs = Long.parseLong(value);
+        break;
+      case "propagationtimeoutms":
+        propagationTimeoutMs = Long.parseLong(value);
+        break;
+      case "multipartthreshold":
+        multipartThreshold = Long.parseLong(value);
+        break;
+      case "uploadthreads":
+        uploadThreads = Integer.parseInt(value);
+        break;
+      case "journalpath":
+        journalPath = value;
+        break;
+      case "journalverify":
+        journalVerify = Boolean.parseBoolean(value);
+        break;
+      case "journaltrustms":
+        journalTrustMs = Long.parseLong(value);
+        break;
+      case "templatepath":
+        templatePath = value;
+        break;
+      case "maxsites":
+        maxSites = Integer.parseInt(value);
+        break;
+      default:
+        throw new IllegalArgumentException("unknown setting '" + key + "'");
+    }
+  }
+
+  /**
+   * @return the SDK's view of these settings
+   */
+  public ClientConfiguration toClientConfiguration() {
+    final ClientConfiguration configuration = new ClientConfiguration();
+    configuration.setMaxConnections(maxConnections);
+    configuration.setConnectionTimeout(connectionTimeoutMs);
+    configuration.setSocketTimeout(socketTimeoutMs);
+    configuration.setConnectionTTL(connectionTtlMs);
+    configuration.setUseTcpKeepAlive(tcpKeepAlive);
+    // throttles are left to the AdaptiveRateLimiter so it learns about them and slows down every caller
+    final RetryPolicy.RetryCondition condition = (request, failure, retries) -> //
+    !AdaptiveRateLimiter.isThrottle(failure) && PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, failure, retries);
+    configuration.setRetryPolicy(new RetryPolicy(condition, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, maxErrorRetry, true));
+    return configuration;
+  }
+
+  /**
+   * @param limiter the limiter pacing the async client's service
+   * @return the SDK's view of these settings for an async client; a throttle surfaces within the future long after the
+   *         limiter let the call through, so the SDK retries it (with its throttling backoff) and tells the limiter so
+   *         every caller slows down
+   */
+  public ClientConfiguration toAsyncClientConfiguration(final AdaptiveRateLimiter limiter) {
+    final ClientConfiguration configuration = toClientConfiguration();
+    final RetryPolicy.RetryCondition condition = (request, failure, retries) -> {
+      if (AdaptiveRateLimiter.isThrottle(failure)) {
+        limiter.onThrottle();
+        return retries < maxThrottleRetries;
+      }
+      return retries < maxErrorRetry && PredefinedRetryPolicies.DEFAULT_RETRY_CONDITION.shouldRetry(request, failure, retries);
+    };
+    configuration.setRetryPolicy(new RetryPolicy(condition, PredefinedRetryPolicies.DEFAULT_BACKOFF_STRATEGY, Math.max(maxErrorRetry, maxThrottleRetries), true));
+    return configuration;
+  }
+}
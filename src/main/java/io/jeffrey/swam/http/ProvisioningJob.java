@@ -0,0 +1,117 @@
+package io.jeffrey.swam.http;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * The state of provisioning a single site as seen by whoever asked for it (and whoever asks about it later)
+ *
+ * @author jeffrey
+ */
+public class ProvisioningJob {
+
+  /**
+   * where a job is in its life
+   */
+  public static enum State {
+    QUEUED, RUNNING, PROPAGATING, LIVE, FAILED
+  }
+
+  public final String          domain;
+  public final long            submittedAt;
+  /** the name the site is served from; the requested domain unless the site came from the warm pool */
+  private volatile String      site;
+  private volatile State       state;
+  private volatile long        startedAt;
+  private volatile long        finishedAt;
+  private volatile Set<String> changeIds;
+  private volatile String      error;
+
+  ProvisioningJob(final String domain) {
+    this.domain = domain;
+    this.submittedAt = System.currentTimeMillis();
+    this.site = domain;
+    this.state = State.QUEUED;
+    this.startedAt = 0;
+    this.finishedAt = 0;
+    this.changeIds = Collections.emptySet();
+    this.error = null;
+  }
+
+  public State state() {
+    return state;
+  }
+
+  void running() {
+    startedAt = System.currentTimeMillis();
+    state = State.RUNNING;
+  }
+
+  void propagating(final Set<String> changeIds) {
+    this.changeIds = changeIds;
+    state = State.PROPAGATING;
+  }
+
+  void live() {
+    finishedAt = System.currentTimeMillis();
+    state = State.LIVE;
+  }
+
+  /**
+   * the job was satisfied by a site from the warm pool
+   */
+  void claimed(final String site) {
+    this.site = site;
+    startedAt = System.currentTimeMillis();
+    finishedAt = startedAt;
+    state = State.LIVE;
+  }
+
+  public String site() {
+    return site;
+  }
+
+  void failed(final String error) {
+    this.error = error;
+    finishedAt = System.currentTimeMillis();
+    state = State.FAILED;
+  }
+
+  /**
+   * @return the job as JSON
+   */
+  public String toJson() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("{\"domain\":\"").append(escape(domain)).append('"');
+    sb.append(",\"state\":\"").append(state).append('"');
+    sb.append(",\"url\":\"http://").append(escape(site)).append("/\"");
+    sb.append(",\"submittedAt\":").append(submittedAt);
+    if (startedAt > 0) {
+      sb.append(",\"queuedMs\":").append(startedAt - submittedAt);
+    }
+    if (finishedAt > 0) {
+      sb.append(",\"totalMs\":").append(finishedAt - submittedAt);
+    }
+    sb.append(",\"changes\":").append(changeIds.size());
+    if (error != null) {
+      sb.append(",\"error\":\"").append(escape(error)).append('"');
+    }
+    sb.append('}');
+    return sb.toString();
+  }
+
+  static String escape(final String value) {
+    final StringBuilder sb = new StringBuilder(value.length());
+    for (int k = 0; k < value.length(); k++) {
+      final char ch = value.charAt(k);
+      if (ch == '"' || ch == '\\') {
+        sb.append('\\').append(ch);
+      } else if (ch < 0x20) {
+        sb.append(String.format("\\u%04x", (int) ch));
+      } else {
+        sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+}
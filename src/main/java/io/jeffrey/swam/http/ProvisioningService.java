@@ -0,0 +1,335 @@
+package io.jeffrey.swam.http;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniversePool;
+import io.jeffrey.swam.workflows.CreateWebsiteWorkflow;
+import io.jeffrey.swam.workflows.WarmPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP front door where a student picks a subdomain and pushes a button. Requests are acknowledged right away
+ * and queued (in order) for a fixed number of provisioning workers, so a classroom clicking at once gets a fair, steady
+ * backend rather than a thread per click fighting the throttles. Asking again for a subdomain that is queued, running,
+ * or live joins that job rather than starting another. With a warm pool, a request is handed a ready site when there is
+ * one and is only queued when the pool is empty. Each site is placed on an account of the pool just as a batch would
+ * place it.
+ *
+ * <pre>
+ * GET  /                  the form
+ * POST /sites  name=alice 202 with the job (or 200 if it already existed, 503 if the queue is full)
+ * GET  /sites/{domain}    the job
+ * GET  /sites             every job
+ * </pre>
+ *
+ * @author jeffrey
+ */
+public class ProvisioningService {
+  private static final Pattern LABEL = Pattern.compile("[a-z0-9]([a-z0-9-]{0,61}[a-z0-9])?");
+
+  private final WorkflowStatusLog                                log;
+  private final UniversePool                                     accounts;
+  private final ConcurrentHashMap<String, CreateWebsiteWorkflow> creators;
+  private final String                                           parent;
+  private final HostingRegion                                    region;
+  private final ConcurrentHashMap<String, ProvisioningJob>       jobs;
+  private final ThreadPoolExecutor                               workers;
+  private final ExecutorService                                  handlers;
+  private final HttpServer                                       server;
+  private final WarmPool                                         pool;
+
+  /**
+   * @param parent the domain which every site is a subdomain of (i.e. class.example.com)
+   * @param workers how many sites are provisioned at once
+   * @param queueCapacity how many requests may wait for a worker before we turn people away
+   */
+  public ProvisioningService(final WorkflowStatusLog log, final Universe universe, final String parent, final HostingRegion region, final InetSocketAddress address, final int workers, final int queueCapacity) throws IOException {
+    this(log, universe, parent, region, address, workers, queueCapacity, null);
+  }
+
+  /**
+   * @param pool where requests are satisfied from first (when it has a ready site), may be null
+   */
+  public ProvisioningService(final WorkflowStatusLog log, final Universe universe, final String parent, final HostingRegion region, final InetSocketAddress address, final int workers, final int queueCapacity, final WarmPool pool) throws IOException {
+    this(log, new UniversePool(universe), parent, region, address, workers, queueCapacity, pool);
+  }
+
+  /**
+   * @param accounts where each site is placed (and provisioned)
+   * @param pool where requests are satisfied from first (when it has a ready site), may be null
+   */
+  public ProvisioningService(final WorkflowStatusLog log, final UniversePool accounts, final String parent, final HostingRegion region, final InetSocketAddress address, final int workers, final int queueCapacity, final WarmPool pool) throws IOException {
+    this.log = log;
+    this.pool = pool;
+    this.accounts = accounts;
+    this.creators = new ConcurrentHashMap<>();
+    this.parent = parent.toLowerCase();
+    this.region = region;
+    this.jobs = new ConcurrentHashMap<>();
+    this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity, true), daemons("provision-worker-"));
+    this.handlers = Executors.newFixedThreadPool(8, daemons("http-"));
+    this.server = HttpServer.create(address, 128);
+    this.server.setExecutor(handlers);
+    this.server.createContext("/sites", this::sites);
+    this.server.createContext("/", this::form);
+  }
+
+  public void start() {
+    server.start();
+    log.event(Level.INFO, "service", "listening", "address", server.getAddress(), "parent", parent);
+  }
+
+  /**
+   * stop taking requests; jobs which are running finish, queued jobs are dropped
+   */
+  public void stop() throws InterruptedException {
+    server.stop(1);
+    workers.shutdownNow();
+    workers.awaitTermination(30, TimeUnit.SECONDS);
+    handlers.shutdown();
+  }
+
+  /**
+   * @return the port we are listening on
+   */
+  public int port() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * @return the job for the subdomain; a new job is queued unless one is already queued, running, or live
+   * @throws RejectedExecutionException if the queue is full
+   * @throws IllegalArgumentException if the name is not a valid subdomain label
+   */
+  public ProvisioningJob submit(final String name) {
+    final String label = name == null ? "" : name.trim().toLowerCase();
+    if (!LABEL.matcher(label).matches()) {
+      throw new IllegalArgumentException("a site name is 1 to 63 letters, digits, or dashes (not at either end)");
+    }
+    final String domain = label + "." + parent;
+    final ProvisioningJob[] created = new ProvisioningJob[1];
+    final ProvisioningJob job = jobs.compute(domain, (d, existing) -> {
+      if (existing != null && existing.state() != ProvisioningJob.State.FAILED) {
+        return existing;
+      }
+      created[0] = new ProvisioningJob(d);
+      return created[0];
+    });
+    if (created[0] != null && fromPool(job, label)) {
+      return job;
+    }
+    if (created[0] != null) {
+      try {
+        workers.execute(() -> provision(job));
+      } catch (final RejectedExecutionException e) {
+        jobs.remove(domain, job);
+        log.event(Level.WARN, "service", "queue full", "domain", domain);
+        throw e;
+      }
+      log.event(Level.INFO, "service", "queued", "domain", domain, "queued", workers.getQueue().size());
+    }
+    return job;
+  }
+
+  /**
+   * try to satisfy the job with a ready site from the pool
+   *
+   * @return whether the job was satisfied
+   */
+  private boolean fromPool(final ProvisioningJob job, final String owner) {
+    if (pool == null) {
+      return false;
+    }
+    try {
+      final WarmPool.Claim claim = pool.claim(owner);
+      if (claim == null) {
+        return false;
+      }
+      job.claimed(claim.domain);
+      log.event(Level.INFO, "service", "claimed from pool", "domain", job.domain, "site", claim.domain);
+      return true;
+    } catch (final Exception e) {
+      log.event(Level.WARN, "service", "pool claim failed", "domain", job.domain, "error", e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * @return the job for the domain (null if nobody asked for it)
+   */
+  public ProvisioningJob job(final String domain) {
+    return jobs.get(domain.toLowerCase());
+  }
+
+  /**
+   * run on a worker; the worker is released as soon as the setup is done (propagation is waited on elsewhere)
+   */
+  private void provision(final ProvisioningJob job) {
+    job.running();
+    try {
+      final UniversePool.Shard account = accounts.place(job.domain);
+      final CreateWebsiteWorkflow creator = creators.computeIfAbsent(account.name, (name) -> new CreateWebsiteWorkflow(log, account.universe));
+      final Set<String> changeIds = creator.setupDomain(job.domain, region);
+      job.propagating(changeIds);
+      creator.whenLive(changeIds).whenComplete((ignored, failure) -> {
+        if (failure == null) {
+          job.live();
+          log.event(Level.INFO, "service", "live", "domain", job.domain);
+        } else {
+          job.failed("not live: " + failure.getMessage());
+        }
+      });
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "service", "failed", "domain", job.domain, "error", e.getMessage());
+      job.failed(e.getClass().getSimpleName() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * /sites and /sites/{domain}
+   */
+  private void sites(final HttpExchange exchange) throws IOException {
+    try {
+      final String path = exchange.getRequestURI().getPath();
+      final String rest = path.length() > "/sites".length() ? path.substring("/sites/".length()) : "";
+      if ("POST".equals(exchange.getRequestMethod()) && rest.isEmpty()) {
+        create(exchange);
+      } else if ("GET".equals(exchange.getRequestMethod()) && rest.isEmpty()) {
+        final StringBuilder sb = new StringBuilder("[");
+        for (final ProvisioningJob job : jobs.values()) {
+          if (sb.length() > 1) {
+            sb.append(',');
+          }
+          sb.append(job.toJson());
+        }
+        respond(exchange, 200, "application/json", sb.append(']').toString());
+      } else if ("GET".equals(exchange.getRequestMethod())) {
+        final ProvisioningJob job = job(rest);
+        if (job == null) {
+          respond(exchange, 404, "application/json", "{\"error\":\"no such site\"}");
+        } else {
+          respond(exchange, 200, "application/json", job.toJson());
+        }
+      } else {
+        respond(exchange, 405, "application/json", "{\"error\":\"method not allowed\"}");
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /**
+   * POST /sites; a form post is redirected to the status of the job
+   */
+  private void create(final HttpExchange exchange) throws IOException {
+    final String name = parameter(readBody(exchange.getRequestBody()), "name", parameter(exchange.getRequestURI().getRawQuery(), "name", null));
+    final ProvisioningJob existing = name == null ? null : job(name.trim() + "." + parent);
+    final ProvisioningJob job;
+    try {
+      job = submit(name);
+    } catch (final IllegalArgumentException e) {
+      respond(exchange, 400, "application/json", "{\"error\":\"" + ProvisioningJob.escape(e.getMessage()) + "\"}");
+      return;
+    } catch (final RejectedExecutionException e) {
+      exchange.getResponseHeaders().set("Retry-After", "30");
+      respond(exchange, 503, "application/json", "{\"error\":\"too many sites are being made right now; try again shortly\"}");
+      return;
+    }
+    final String location = "/sites/" + job.domain;
+    exchange.getResponseHeaders().set("Location", location);
+    final String type = exchange.getRequestHeaders().getFirst("Content-Type");
+    if (type != null && type.startsWith("application/x-www-form-urlencoded")) {
+      respond(exchange, 303, "application/json", job.toJson());
+    } else {
+      respond(exchange, existing == job ? 200 : 202, "application/json", job.toJson());
+    }
+  }
+
+  /**
+   * GET /
+   */
+  private void form(final HttpExchange exchange) throws IOException {
+    try {
+      if (!"/".equals(exchange.getRequestURI().getPath())) {
+        respond(exchange, 404, "text/plain", "not found");
+        return;
+      }
+      respond(exchange, 200, "text/html; charset=utf-8", "<html><head><title>Make a website</title></head><body>" //
+          + "<form method=\"post\" action=\"/sites\">" //
+          + "<input name=\"name\" placeholder=\"your name\"/>." + parent + " <button type=\"submit\">Make my website</button>" //
+          + "</form></body></html>");
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void respond(final HttpExchange exchange, final int status, final String contentType, final String body) throws IOException {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(status, bytes.length);
+    final OutputStream output = exchange.getResponseBody();
+    output.write(bytes);
+    output.close();
+  }
+
+  /**
+   * read a (small) request body
+   */
+  private static String readBody(final InputStream input) throws IOException {
+    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    final byte[] chunk = new byte[1024];
+    int read;
+    while ((read = input.read(chunk)) >= 0 && buffer.size() < 4096) {
+      buffer.write(chunk, 0, read);
+    }
+    return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the named parameter from a url encoded string
+   */
+  private static String parameter(final String encoded, final String name, final String otherwise) throws IOException {
+    if (encoded == null) {
+      return otherwise;
+    }
+    for (final String pair : encoded.split("&")) {
+      final int eq = pair.indexOf('=');
+      if (eq > 0 && URLDecoder.decode(pair.substring(0, eq), "UTF-8").equals(name)) {
+        return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+      }
+    }
+    return otherwise;
+  }
+
+  private static ThreadFactory daemons(final String prefix) {
+    final AtomicInteger count = new AtomicInteger(0);
+    return (r) -> {
+      final Thread thread = new Thread(r, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,100 @@
+package io.jeffrey.swam.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in microseconds. Buckets are log-linear (every power of two is split into 8
+ * linear sub-buckets), so any percentile is within about 12% of the truth while the whole histogram is a few KB.
+ *
+ * @author jeffrey
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS    = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int BUCKETS     = (64 - SUB_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts;
+  private final AtomicLong      count;
+  private final AtomicLong      sumMicros;
+  private final AtomicLong      maxMicros;
+
+  public LatencyHistogram() {
+    this.counts = new AtomicLongArray(BUCKETS);
+    this.count = new AtomicLong(0);
+    this.sumMicros = new AtomicLong(0);
+    this.maxMicros = new AtomicLong(0);
+  }
+
+  /**
+   * record a single observation
+   */
+  public void record(final long micros) {
+    final long value = Math.max(0, micros);
+    counts.incrementAndGet(bucketOf(value));
+    count.incrementAndGet();
+    sumMicros.addAndGet(value);
+    long max = maxMicros.get();
+    while (value > max && !maxMicros.compareAndSet(max, value)) {
+      max = maxMicros.get();
+    }
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long maxMicros() {
+    return maxMicros.get();
+  }
+
+  public double meanMicros() {
+    final long n = count.get();
+    return n == 0 ? 0 : (double) sumMicros.get() / n;
+  }
+
+  /**
+   * @param percentile in [0, 100]
+   * @return the upper bound of the bucket holding the given percentile
+   */
+  public long percentileMicros(final double percentile) {
+    final long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(bucket), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  /**
+   * values below SUB_BUCKETS get their own bucket, above that each power of two gets SUB_BUCKETS buckets
+   */
+  private static int bucketOf(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    final int sub = (int) (value >>> (magnitude - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * the largest value which lands in the bucket
+   */
+  private static long upperBoundOf(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int magnitude = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    final long sub = bucket % SUB_BUCKETS;
+    final long lower = (1L << magnitude) | (sub << (magnitude - SUB_BITS));
+    return lower + (1L << (magnitude - SUB_BITS)) - 1;
+  }
+}
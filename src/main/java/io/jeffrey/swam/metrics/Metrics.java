@@ -0,0 +1,145 @@
+package io.jeffrey.swam.metrics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency histograms and counters keyed by name (i.e. "stage.ensureHostedZoneExists" or "route53.listHostedZones").
+ * Everything is lock-free so recording from many workers at once is cheap; the summary is computed at the end.
+ *
+ * @author jeffrey
+ */
+public class Metrics {
+
+  /**
+   * the latency and outcome of everything recorded under one name
+   */
+  public static class Timer {
+    public final LatencyHistogram latency  = new LatencyHistogram();
+    public final AtomicLong       failures = new AtomicLong(0);
+  }
+
+  private final ConcurrentHashMap<String, Timer>      timers;
+  private final ConcurrentHashMap<String, AtomicLong> counters;
+
+  public Metrics() {
+    this.timers = new ConcurrentHashMap<>();
+    this.counters = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * record how long something took
+   *
+   * @param startedNanos what System.nanoTime() said when it started
+   */
+  public void record(final String name, final long startedNanos, final boolean failed) {
+    final Timer timer = timer(name);
+    timer.latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedNanos));
+    if (failed) {
+      timer.failures.incrementAndGet();
+    }
+  }
+
+  /**
+   * count an occurrence (i.e. a throttle or a retry)
+   */
+  public void increment(final String name) {
+    counters.computeIfAbsent(name, (k) -> new AtomicLong(0)).incrementAndGet();
+  }
+
+  /**
+   * @return the timer of the given name (created if needed)
+   */
+  public Timer timer(final String name) {
+    return timers.computeIfAbsent(name, (k) -> new Timer());
+  }
+
+  /**
+   * @return the count of the given name
+   */
+  public long count(final String name) {
+    final AtomicLong counter = counters.get(name);
+    return counter == null ? 0 : counter.get();
+  }
+
+  /**
+   * @return a human readable table of percentiles (in ms) and counters
+   */
+  public String summary() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-48s %8s %6s %9s %9s %9s %9s %9s%n", "name", "count", "fail", "mean", "p50", "p90", "p99", "max"));
+    for (final Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+      final LatencyHistogram h = entry.getValue().latency;
+      sb.append(String.format("%-48s %8d %6d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), h.count(), entry.getValue().failures.get(), //
+          h.meanMicros() / 1000.0, h.percentileMicros(50) / 1000.0, h.percentileMicros(90) / 1000.0, h.percentileMicros(99) / 1000.0, h.maxMicros() / 1000.0));
+    }
+    for (final Map.Entry<String, AtomicLong> entry : new TreeMap<>(counters).entrySet()) {
+      sb.append(String.format("%-48s %8d%n", entry.getKey(), entry.getValue().get()));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @return the same as the summary as JSON (latencies in microseconds)
+   */
+  public String toJson() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("{\"timers\":{");
+    boolean first = true;
+    for (final Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+      final LatencyHistogram h = entry.getValue().latency;
+      if (!first) {
+        sb.append(',');
+      }
+      first = false;
+      sb.append('"').append(escape(entry.getKey())).append("\":{");
+      sb.append("\"count\":").append(h.count());
+      sb.append(",\"failures\":").append(entry.getValue().failures.get());
+      sb.append(",\"mean_us\":").append(Math.round(h.meanMicros()));
+      sb.append(",\"p50_us\":").append(h.percentileMicros(50));
+      sb.append(",\"p90_us\":").append(h.percentileMicros(90));
+      sb.append(",\"p99_us\":").append(h.percentileMicros(99));
+      sb.append(",\"max_us\":").append(h.maxMicros());
+      sb.append('}');
+    }
+    sb.append("},\"counters\":{");
+    first = true;
+    for (final Map.Entry<String, AtomicLong> entry : new TreeMap<>(counters).entrySet()) {
+      if (!first) {
+        sb.append(',');
+      }
+      first = false;
+      sb.append('"').append(escape(entry.getKey())).append("\":").append(entry.getValue().get());
+    }
+    sb.append("}}");
+    return sb.toString();
+  }
+
+  /**
+   * write the JSON to disk
+   */
+  public void writeJson(final File file) throws Exception {
+    final Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+    try {
+      writer.write(toJson());
+      writer.write("\n");
+    } finally {
+      writer.close();
+    }
+  }
+
+  /**
+   * names are ours, but be safe
+   */
+  private static String escape(final String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+}
@@ -0,0 +1,179 @@
+package io.jeffrey.swam.simulated;
+
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniverseSettings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53domains.AmazonRoute53Domains;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * An in-memory stand-in for the parts of Route53, Route53 Domains, and S3 that the workflows use. Each call pays an
+ * injected latency and may be throttled, and listings are paginated at a configurable size, so the workflows can be
+ * load tested (unmodified) on a laptop. A throttled upload has its body read first, as S3 reads a request before it
+ * refuses it, so a retry must rewind the body.
+ *
+ * @author jeffrey
+ */
+public class SimulatedAws {
+
+  /** the latency every call pays */
+  public long   latencyMs               = 20;
+
+  /** a uniformly random extra latency up to this much */
+  public long   jitterMs                = 10;
+
+  /** how many items a listing returns per page */
+  public int    pageSize                = 100;
+
+  /** Route53 calls per second before calls are throttled (0 is unlimited) */
+  public double route53ThrottlePerSecond = 5;
+
+  /** S3 calls per second before calls are throttled (0 is unlimited) */
+  public double s3ThrottlePerSecond     = 0;
+
+  /** Route53 Domains calls per second before calls are throttled (0 is unlimited) */
+  public double domainsThrottlePerSecond = 1;
+
+  /** how long a Route53 change stays PENDING */
+  public long   propagationMs           = 2000;
+
+  public final SimulatedRoute53        route53 = new SimulatedRoute53(this);
+  public final SimulatedS3             s3      = new SimulatedS3(this);
+  public final SimulatedRoute53Domains domains = new SimulatedRoute53Domains(this);
+
+  /**
+   * @return a universe whose clients talk to this simulation
+   */
+  public Universe universe(final UniverseSettings settings) {
+    return new Universe(settings, //
+        serve(AmazonRoute53.class, route53, new Throttle(route53ThrottlePerSecond, "Throttling", 400)), //
+        serve(AmazonS3.class, s3, new Throttle(s3ThrottlePerSecond, "SlowDown", 503)), //
+        serve(AmazonRoute53Domains.class, domains, new Throttle(domainsThrottlePerSecond, "ThrottlingException", 400)));
+  }
+
+  /**
+   * a fixed one second window; good enough to make the limiters earn their keep
+   */
+  private static class Throttle {
+    private final double limit;
+    private final String errorCode;
+    private final int    statusCode;
+    private long         window;
+    private int          calls;
+
+    private Throttle(final double limit, final String errorCode, final int statusCode) {
+      this.limit = limit;
+      this.errorCode = errorCode;
+      this.statusCode = statusCode;
+      this.window = 0;
+      this.calls = 0;
+    }
+
+    private synchronized void check() {
+      if (limit <= 0) {
+        return;
+      }
+      final long now = System.currentTimeMillis() / 1000;
+      if (now != window) {
+        window = now;
+        calls = 0;
+      }
+      calls++;
+      if (calls > limit) {
+        throw SimulatedAws.failure("Rate exceeded", errorCode, statusCode);
+      }
+    }
+  }
+
+  /**
+   * build an exception the way the SDK would have
+   */
+  static AmazonServiceException failure(final String message, final String errorCode, final int statusCode) {
+    final AmazonServiceException failure = new AmazonServiceException(message);
+    failure.setErrorCode(errorCode);
+    failure.setStatusCode(statusCode);
+    return failure;
+  }
+
+  /**
+   * present the backend as the given client interface; methods the backend lacks are unsupported
+   */
+  private <T> T serve(final Class<T> api, final Object backend, final Throttle throttle) {
+    final InvocationHandler handler = (proxy, method, args) -> {
+      if (method.getDeclaringClass() == Object.class) {
+        return method.invoke(backend, args);
+      }
+      final Method implementation;
+      try {
+        implementation = backend.getClass().getMethod(method.getName(), method.getParameterTypes());
+      } catch (final NoSuchMethodException e) {
+        if (method.getReturnType() == void.class && method.getName().equals("shutdown")) {
+          return null;
+        }
+        throw new UnsupportedOperationException(api.getSimpleName() + "." + method.getName() + " is not simulated");
+      }
+      pause();
+      try {
+        throttle.check();
+      } catch (final AmazonServiceException throttled) {
+        drain(args);
+        throw throttled;
+      }
+      try {
+        return implementation.invoke(backend, args);
+      } catch (final InvocationTargetException e) {
+        throw e.getCause();
+      }
+    };
+    return api.cast(Proxy.newProxyInstance(api.getClassLoader(), new Class<?>[] { api }, handler));
+  }
+
+  /**
+   * read (but do not close) the body of an upload, as the service does before it answers
+   */
+  private static void drain(final Object[] args) throws IOException {
+    if (args == null) {
+      return;
+    }
+    for (final Object arg : args) {
+      InputStream body = null;
+      long remaining = Long.MAX_VALUE;
+      if (arg instanceof PutObjectRequest) {
+        body = ((PutObjectRequest) arg).getInputStream();
+      } else if (arg instanceof UploadPartRequest) {
+        // a part is a window onto a longer stream
+        body = ((UploadPartRequest) arg).getInputStream();
+        remaining = ((UploadPartRequest) arg).getPartSize();
+      }
+      if (body != null) {
+        final byte[] buffer = new byte[64 * 1024];
+        int read;
+        while (remaining > 0 && (read = body.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+          remaining -= read;
+        }
+      }
+    }
+  }
+
+  /**
+   * the injected latency
+   */
+  private void pause() throws InterruptedException {
+    final long ms = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+    if (ms > 0) {
+      Thread.sleep(ms);
+    }
+  }
+}
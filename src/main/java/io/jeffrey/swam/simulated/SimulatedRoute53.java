@@ -0,0 +1,245 @@
+package io.jeffrey.swam.simulated;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ChangeStatus;
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+import com.amazonaws.services.route53.model.CreateHostedZoneResult;
+import com.amazonaws.services.route53.model.DeleteHostedZoneRequest;
+import com.amazonaws.services.route53.model.DeleteHostedZoneResult;
+import com.amazonaws.services.route53.model.GetChangeRequest;
+import com.amazonaws.services.route53.model.GetChangeResult;
+import com.amazonaws.services.route53.model.GetHostedZoneRequest;
+import com.amazonaws.services.route53.model.GetHostedZoneResult;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.InvalidChangeBatchException;
+import com.amazonaws.services.route53.model.ListHostedZonesRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesResult;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.NoSuchHostedZoneException;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+
+/**
+ * The simulated Route53: hosted zones, their record sets, and changes which go INSYNC after a delay. A zone starts
+ * with the NS and SOA of its apex, which (as with the real thing) can not be deleted and go with the zone.
+ *
+ * @author jeffrey
+ */
+public class SimulatedRoute53 {
+
+  /**
+   * a zone and its records ordered by name then type (so pagination by start name/type works)
+   */
+  private static class Zone {
+    private final HostedZone                         zone;
+    private final TreeMap<String, ResourceRecordSet> records = new TreeMap<>();
+
+    private Zone(final HostedZone zone) {
+      this.zone = zone;
+    }
+  }
+
+  private final SimulatedAws          aws;
+  private final TreeMap<String, Zone> zonesById;
+  private final HashMap<String, Long> changes;
+  private final AtomicLong            ids;
+
+  SimulatedRoute53(final SimulatedAws aws) {
+    this.aws = aws;
+    this.zonesById = new TreeMap<>();
+    this.changes = new HashMap<>();
+    this.ids = new AtomicLong(1000);
+  }
+
+  public synchronized CreateHostedZoneResult createHostedZone(final CreateHostedZoneRequest request) {
+    // like the real thing, the name is kept in lower case
+    final String name = (request.getName().endsWith(".") ? request.getName() : request.getName() + ".").toLowerCase();
+    final HostedZone zone = new HostedZone("/hostedzone/Z" + ids.incrementAndGet(), name, request.getCallerReference());
+    zone.setConfig(request.getHostedZoneConfig());
+    final Zone created = new Zone(zone);
+    final String server = "ns-" + (ids.get() % 2048) + ".awsdns-sim.net.";
+    final ResourceRecordSet ns = new ResourceRecordSet(name, RRType.NS).withTTL(172800L);
+    ns.setResourceRecords(Arrays.asList(new ResourceRecord(server), new ResourceRecord("ns-" + (ids.get() % 2048) + ".awsdns-sim.org.")));
+    final ResourceRecordSet soa = new ResourceRecordSet(name, RRType.SOA).withTTL(900L);
+    soa.setResourceRecords(Collections.singleton(new ResourceRecord(server + " awsdns-hostmaster.amazon.com. 1 7200 900 1209600 86400")));
+    created.records.put(key(name, "NS"), ns);
+    created.records.put(key(name, "SOA"), soa);
+    zone.setResourceRecordSetCount((long) created.records.size());
+    zonesById.put(zone.getId(), created);
+    final CreateHostedZoneResult result = new CreateHostedZoneResult();
+    result.setHostedZone(zone);
+    result.setChangeInfo(newChange());
+    return result;
+  }
+
+  public synchronized GetHostedZoneResult getHostedZone(final GetHostedZoneRequest request) {
+    return new GetHostedZoneResult().withHostedZone(zone(request.getId()).zone);
+  }
+
+  public synchronized DeleteHostedZoneResult deleteHostedZone(final DeleteHostedZoneRequest request) {
+    final Zone zone = zone(request.getId());
+    for (final ResourceRecordSet set : zone.records.values()) {
+      if (!isApexRequired(zone, set)) {
+        throw SimulatedAws.failure("The hosted zone contains resource records", "HostedZoneNotEmpty", 400);
+      }
+    }
+    zonesById.remove(zone.zone.getId());
+    return new DeleteHostedZoneResult().withChangeInfo(newChange());
+  }
+
+  public synchronized ListHostedZonesResult listHostedZones(final ListHostedZonesRequest request) {
+    final ListHostedZonesResult result = new ListHostedZonesResult();
+    final ArrayList<HostedZone> page = new ArrayList<>();
+    final Map<String, Zone> tail = request.getMarker() == null ? zonesById : zonesById.tailMap(request.getMarker(), true);
+    for (final Zone zone : tail.values()) {
+      if (page.size() == aws.pageSize) {
+        result.setIsTruncated(true);
+        result.setNextMarker(zone.zone.getId());
+        result.setHostedZones(page);
+        return result;
+      }
+      page.add(zone.zone);
+    }
+    result.setIsTruncated(false);
+    result.setHostedZones(page);
+    return result;
+  }
+
+  public ListHostedZonesResult listHostedZones() {
+    return listHostedZones(new ListHostedZonesRequest());
+  }
+
+  public synchronized ListResourceRecordSetsResult listResourceRecordSets(final ListResourceRecordSetsRequest request) {
+    final Zone zone = zone(request.getHostedZoneId());
+    final ListResourceRecordSetsResult result = new ListResourceRecordSetsResult();
+    final ArrayList<ResourceRecordSet> page = new ArrayList<>();
+    Map<String, ResourceRecordSet> tail = zone.records;
+    if (request.getStartRecordName() != null) {
+      tail = zone.records.tailMap(key(request.getStartRecordName(), request.getStartRecordType() == null ? "" : request.getStartRecordType()), true);
+    }
+    final int limit = request.getMaxItems() == null ? aws.pageSize : Math.min(aws.pageSize, Integer.parseInt(request.getMaxItems()));
+    for (final ResourceRecordSet set : tail.values()) {
+      if (page.size() == limit) {
+        result.setIsTruncated(true);
+        result.setNextRecordName(set.getName());
+        result.setNextRecordType(set.getType());
+        result.setResourceRecordSets(page);
+        return result;
+      }
+      page.add(set);
+    }
+    result.setIsTruncated(false);
+    result.setResourceRecordSets(page);
+    return result;
+  }
+
+  /**
+   * changes are all or nothing, just like the real thing
+   */
+  public synchronized ChangeResourceRecordSetsResult changeResourceRecordSets(final ChangeResourceRecordSetsRequest request) {
+    final Zone zone = zone(request.getHostedZoneId());
+    final TreeMap<String, ResourceRecordSet> next = new TreeMap<>(zone.records);
+    for (final Change change : request.getChangeBatch().getChanges()) {
+      final ResourceRecordSet set = change.getResourceRecordSet();
+      final String key = key(set.getName(), set.getType());
+      switch (change.getAction()) {
+        case "CREATE":
+          if (next.containsKey(key)) {
+            throw new InvalidChangeBatchException("Tried to create resource record set " + set.getName() + " type " + set.getType() + " but it already exists");
+          }
+          next.put(key, set);
+          break;
+        case "UPSERT":
+          next.put(key, set);
+          break;
+        case "DELETE":
+          if (isApexRequired(zone, set)) {
+            throw new InvalidChangeBatchException("A HostedZone must contain at least one NS record and one SOA record for the zone itself");
+          }
+          if (next.remove(key) == null) {
+            throw new InvalidChangeBatchException("Tried to delete resource record set " + set.getName() + " type " + set.getType() + " but it was not found");
+          }
+          break;
+        default:
+          throw new InvalidChangeBatchException("unknown action " + change.getAction());
+      }
+    }
+    zone.records.clear();
+    zone.records.putAll(next);
+    zone.zone.setResourceRecordSetCount((long) next.size());
+    return new ChangeResourceRecordSetsResult().withChangeInfo(newChange());
+  }
+
+  public synchronized GetChangeResult getChange(final GetChangeRequest request) {
+    final Long submitted = changes.get(request.getId());
+    if (submitted == null) {
+      throw SimulatedAws.failure("no change " + request.getId(), "NoSuchChange", 404);
+    }
+    final ChangeInfo info = new ChangeInfo(request.getId(), status(submitted), new Date(submitted));
+    return new GetChangeResult().withChangeInfo(info);
+  }
+
+  /**
+   * @return how many zones there are
+   */
+  public synchronized int zoneCount() {
+    return zonesById.size();
+  }
+
+  /**
+   * @return how many records there are across every zone
+   */
+  public synchronized int recordCount() {
+    int count = 0;
+    for (final Zone zone : zonesById.values()) {
+      count += zone.records.size();
+    }
+    return count;
+  }
+
+  private Zone zone(final String id) {
+    final Zone zone = zonesById.get(id.startsWith("/hostedzone/") ? id : "/hostedzone/" + id);
+    if (zone == null) {
+      throw new NoSuchHostedZoneException("no hosted zone " + id);
+    }
+    return zone;
+  }
+
+  private ChangeInfo newChange() {
+    final String id = "/change/C" + ids.incrementAndGet();
+    final long now = System.currentTimeMillis();
+    changes.put(id, now);
+    return new ChangeInfo(id, ChangeStatus.PENDING, new Date(now));
+  }
+
+  private ChangeStatus status(final long submitted) {
+    return System.currentTimeMillis() - submitted >= aws.propagationMs ? ChangeStatus.INSYNC : ChangeStatus.PENDING;
+  }
+
+  /**
+   * @return is the set the NS or SOA of the zone's apex
+   */
+  private static boolean isApexRequired(final Zone zone, final ResourceRecordSet set) {
+    final String name = set.getName().endsWith(".") ? set.getName() : set.getName() + ".";
+    return name.equalsIgnoreCase(zone.zone.getName()) && ("NS".equals(set.getType()) || "SOA".equals(set.getType()));
+  }
+
+  private static String key(final String name, final String type) {
+    final String dotted = name.endsWith(".") ? name : name + ".";
+    return dotted.toLowerCase() + "|" + type.toUpperCase();
+  }
+}
@@ -0,0 +1,116 @@
+package io.jeffrey.swam.simulated;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.route53domains.model.CheckDomainAvailabilityRequest;
+import com.amazonaws.services.route53domains.model.CheckDomainAvailabilityResult;
+import com.amazonaws.services.route53domains.model.DomainAvailability;
+import com.amazonaws.services.route53domains.model.DomainSummary;
+import com.amazonaws.services.route53domains.model.GetOperationDetailRequest;
+import com.amazonaws.services.route53domains.model.GetOperationDetailResult;
+import com.amazonaws.services.route53domains.model.ListDomainsRequest;
+import com.amazonaws.services.route53domains.model.ListDomainsResult;
+import com.amazonaws.services.route53domains.model.OperationStatus;
+import com.amazonaws.services.route53domains.model.RegisterDomainRequest;
+import com.amazonaws.services.route53domains.model.RegisterDomainResult;
+
+/**
+ * The simulated Route53 Domains: the domains we own, the domains somebody else owns, and registrations which succeed
+ * after the propagation delay
+ *
+ * @author jeffrey
+ */
+public class SimulatedRoute53Domains {
+  private final SimulatedAws                   aws;
+  private final TreeMap<String, DomainSummary> owned;
+  private final HashSet<String>                taken;
+  private final HashMap<String, Long>          operations;
+  private final HashMap<String, String>        operationDomains;
+  private final AtomicLong                     ids;
+
+  SimulatedRoute53Domains(final SimulatedAws aws) {
+    this.aws = aws;
+    this.owned = new TreeMap<>();
+    this.taken = new HashSet<>();
+    this.operations = new HashMap<>();
+    this.operationDomains = new HashMap<>();
+    this.ids = new AtomicLong(0);
+  }
+
+  /**
+   * pretend we already own the domain
+   */
+  public synchronized void own(final String domain) {
+    owned.put(domain, new DomainSummary().withDomainName(domain).withAutoRenew(true).withTransferLock(true));
+  }
+
+  /**
+   * pretend somebody else owns the domain
+   */
+  public synchronized void take(final String domain) {
+    taken.add(domain);
+  }
+
+  public synchronized ListDomainsResult listDomains(final ListDomainsRequest request) {
+    final ListDomainsResult result = new ListDomainsResult();
+    final int max = request.getMaxItems() == null ? aws.pageSize : Math.min(request.getMaxItems(), aws.pageSize);
+    final ArrayList<DomainSummary> page = new ArrayList<>();
+    final Map<String, DomainSummary> tail = request.getMarker() == null ? owned : owned.tailMap(request.getMarker(), true);
+    for (final DomainSummary summary : tail.values()) {
+      if (page.size() == max) {
+        result.setNextPageMarker(summary.getDomainName());
+        break;
+      }
+      page.add(summary);
+    }
+    result.setDomains(page);
+    return result;
+  }
+
+  public ListDomainsResult listDomains() {
+    return listDomains(new ListDomainsRequest());
+  }
+
+  public synchronized CheckDomainAvailabilityResult checkDomainAvailability(final CheckDomainAvailabilityRequest request) {
+    final String domain = request.getDomainName();
+    final boolean available = !owned.containsKey(domain) && !taken.contains(domain);
+    return new CheckDomainAvailabilityResult().withAvailability(available ? DomainAvailability.AVAILABLE : DomainAvailability.UNAVAILABLE);
+  }
+
+  public synchronized RegisterDomainResult registerDomain(final RegisterDomainRequest request) {
+    final String domain = request.getDomainName();
+    if (owned.containsKey(domain) || taken.contains(domain)) {
+      throw SimulatedAws.failure("Domain " + domain + " is not available", "DomainLimitExceeded", 400);
+    }
+    final String id = "op-" + ids.incrementAndGet();
+    operations.put(id, System.currentTimeMillis());
+    operationDomains.put(id, domain);
+    final int years = request.getDurationInYears() == null ? 1 : request.getDurationInYears();
+    owned.put(domain, new DomainSummary().withDomainName(domain).withAutoRenew(request.getAutoRenew()).withTransferLock(true) //
+        .withExpiry(new Date(System.currentTimeMillis() + 365L * 24 * 60 * 60 * 1000 * years)));
+    return new RegisterDomainResult().withOperationId(id);
+  }
+
+  public synchronized GetOperationDetailResult getOperationDetail(final GetOperationDetailRequest request) {
+    final Long submitted = operations.get(request.getOperationId());
+    if (submitted == null) {
+      throw SimulatedAws.failure("no operation " + request.getOperationId(), "InvalidInput", 400);
+    }
+    final boolean done = System.currentTimeMillis() - submitted >= aws.propagationMs;
+    return new GetOperationDetailResult().withOperationId(request.getOperationId()).withDomainName(operationDomains.get(request.getOperationId())) //
+        .withStatus(done ? OperationStatus.SUCCESSFUL : OperationStatus.IN_PROGRESS).withSubmittedDate(new Date(submitted));
+  }
+
+  /**
+   * @return how many domains we own
+   */
+  public synchronized int ownedCount() {
+    return owned.size();
+  }
+}
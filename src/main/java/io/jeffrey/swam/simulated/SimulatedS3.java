@@ -0,0 +1,383 @@
+package io.jeffrey.swam.simulated;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.PartSummary;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.Region;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.amazonaws.util.BinaryUtils;
+
+/**
+ * The simulated S3: buckets, their website configurations, and object metadata (the bytes are hashed and forgotten)
+ *
+ * @author jeffrey
+ */
+public class SimulatedS3 {
+
+  /**
+   * a bucket and its objects ordered by key (so marker pagination works)
+   */
+  private static class SimBucket {
+    private final Bucket                          bucket;
+    private final TreeMap<String, ObjectMetadata> objects = new TreeMap<>();
+    private BucketWebsiteConfiguration            website = null;
+
+    private SimBucket(final String name) {
+      this.bucket = new Bucket(name);
+      this.bucket.setCreationDate(new Date());
+    }
+  }
+
+  /**
+   * a multipart upload in flight
+   */
+  private static class SimUpload {
+    private final String                        bucket;
+    private final String                        key;
+    private final ObjectMetadata                metadata;
+    private final TreeMap<Integer, PartSummary> parts  = new TreeMap<>();
+    private long                                length = 0;
+
+    private SimUpload(final String bucket, final String key, final ObjectMetadata metadata) {
+      this.bucket = bucket;
+      this.key = key;
+      this.metadata = metadata;
+    }
+  }
+
+  private final SimulatedAws               aws;
+  private final TreeMap<String, SimBucket> buckets;
+  private final HashMap<String, SimUpload> uploads;
+  private final AtomicLong                 ids;
+
+  SimulatedS3(final SimulatedAws aws) {
+    this.aws = aws;
+    this.buckets = new TreeMap<>();
+    this.uploads = new HashMap<>();
+    this.ids = new AtomicLong(0);
+  }
+
+  public synchronized Bucket createBucket(final String name, final Region region) {
+    if (buckets.containsKey(name)) {
+      throw failure("Your previous request to create the named bucket succeeded and you already own it.", "BucketAlreadyOwnedByYou", 409);
+    }
+    final SimBucket bucket = new SimBucket(name);
+    buckets.put(name, bucket);
+    return bucket.bucket;
+  }
+
+  public Bucket createBucket(final String name) {
+    return createBucket(name, Region.US_Standard);
+  }
+
+  public synchronized List<Bucket> listBuckets() {
+    final ArrayList<Bucket> result = new ArrayList<>();
+    for (final SimBucket bucket : buckets.values()) {
+      result.add(bucket.bucket);
+    }
+    return result;
+  }
+
+  public synchronized boolean doesBucketExist(final String name) {
+    return buckets.containsKey(name);
+  }
+
+  public synchronized void deleteBucket(final String name) {
+    final SimBucket bucket = bucket(name);
+    if (!bucket.objects.isEmpty()) {
+      throw failure("The bucket you tried to delete is not empty", "BucketNotEmpty", 409);
+    }
+    buckets.remove(name);
+  }
+
+  public synchronized BucketWebsiteConfiguration getBucketWebsiteConfiguration(final String name) {
+    return bucket(name).website;
+  }
+
+  public synchronized void setBucketWebsiteConfiguration(final String name, final BucketWebsiteConfiguration configuration) {
+    bucket(name).website = configuration;
+  }
+
+  public synchronized ObjectMetadata getObjectMetadata(final String name, final String key) {
+    final ObjectMetadata metadata = bucket(name).objects.get(key);
+    if (metadata == null) {
+      throw failure("Not Found", "404 Not Found", 404);
+    }
+    return metadata;
+  }
+
+  /**
+   * the content is read (outside of the lock) only to learn its md5 and length; a stream is closed once read, as the
+   * SDK closes it
+   */
+  public PutObjectResult putObject(final PutObjectRequest request) throws Exception {
+    final MessageDigest md5 = MessageDigest.getInstance("MD5");
+    final long length;
+    if (request.getFile() != null) {
+      try (InputStream input = new FileInputStream(request.getFile())) {
+        length = digest(input, md5);
+      }
+    } else {
+      try (InputStream input = request.getInputStream()) {
+        length = digest(input, md5);
+      }
+    }
+    final ObjectMetadata metadata = copy(request.getMetadata());
+    metadata.setContentLength(length);
+    metadata.setHeader("ETag", BinaryUtils.toHex(md5.digest()));
+    store(request.getBucketName(), request.getKey(), metadata);
+    final PutObjectResult result = new PutObjectResult();
+    result.setETag(metadata.getETag());
+    return result;
+  }
+
+  public synchronized InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request) {
+    bucket(request.getBucketName());
+    final String id = "upload-" + ids.incrementAndGet();
+    uploads.put(id, new SimUpload(request.getBucketName(), request.getKey(), copy(request.getObjectMetadata())));
+    final InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+    result.setBucketName(request.getBucketName());
+    result.setKey(request.getKey());
+    result.setUploadId(id);
+    return result;
+  }
+
+  public UploadPartResult uploadPart(final UploadPartRequest request) throws Exception {
+    final MessageDigest md5 = MessageDigest.getInstance("MD5");
+    long length = 0;
+    if (request.getFile() != null) {
+      try (InputStream input = new FileInputStream(request.getFile())) {
+        input.skip(request.getFileOffset());
+        length = digest(input, md5, request.getPartSize());
+      }
+    } else {
+      length = digest(request.getInputStream(), md5, request.getPartSize());
+    }
+    final String etag = BinaryUtils.toHex(md5.digest());
+    synchronized (this) {
+      final SimUpload upload = upload(request.getUploadId());
+      upload.length += length;
+      final PartSummary part = new PartSummary();
+      part.setPartNumber(request.getPartNumber());
+      part.setETag(etag);
+      part.setSize(length);
+      part.setLastModified(new Date());
+      upload.parts.put(request.getPartNumber(), part);
+    }
+    final UploadPartResult result = new UploadPartResult();
+    result.setPartNumber(request.getPartNumber());
+    result.setETag(etag);
+    return result;
+  }
+
+  /**
+   * the parts uploaded so far (the transfer manager asks before it uploads the parts of a file, to resume)
+   */
+  public synchronized PartListing listParts(final ListPartsRequest request) {
+    final SimUpload upload = upload(request.getUploadId());
+    final PartListing listing = new PartListing();
+    listing.setBucketName(upload.bucket);
+    listing.setKey(upload.key);
+    listing.setUploadId(request.getUploadId());
+    final int marker = request.getPartNumberMarker() == null ? 0 : request.getPartNumberMarker();
+    for (final PartSummary part : upload.parts.tailMap(marker, false).values()) {
+      if (listing.getParts().size() == aws.pageSize) {
+        listing.setTruncated(true);
+        listing.setNextPartNumberMarker(listing.getParts().get(listing.getParts().size() - 1).getPartNumber());
+        return listing;
+      }
+      listing.getParts().add(part);
+    }
+    listing.setTruncated(false);
+    return listing;
+  }
+
+  public synchronized CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request) {
+    final SimUpload upload = upload(request.getUploadId());
+    uploads.remove(request.getUploadId());
+    final List<PartETag> parts = request.getPartETags();
+    upload.metadata.setContentLength(upload.length);
+    upload.metadata.setHeader("ETag", "multipart" + ids.incrementAndGet() + "-" + parts.size());
+    store(upload.bucket, upload.key, upload.metadata);
+    final CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+    result.setBucketName(upload.bucket);
+    result.setKey(upload.key);
+    result.setETag(upload.metadata.getETag());
+    return result;
+  }
+
+  public synchronized void abortMultipartUpload(final AbortMultipartUploadRequest request) {
+    uploads.remove(request.getUploadId());
+  }
+
+  public synchronized ObjectListing listObjects(final ListObjectsRequest request) {
+    final SimBucket bucket = bucket(request.getBucketName());
+    final String prefix = request.getPrefix() == null ? "" : request.getPrefix();
+    final int max = request.getMaxKeys() == null ? aws.pageSize : Math.min(request.getMaxKeys(), aws.pageSize);
+    final ObjectListing listing = new ObjectListing();
+    listing.setBucketName(bucket.bucket.getName());
+    listing.setPrefix(request.getPrefix());
+    listing.setMarker(request.getMarker());
+    listing.setMaxKeys(max);
+    final Map<String, ObjectMetadata> tail = request.getMarker() == null ? bucket.objects.tailMap(prefix, true) : bucket.objects.tailMap(request.getMarker(), false);
+    String last = null;
+    for (final Map.Entry<String, ObjectMetadata> entry : tail.entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      if (listing.getObjectSummaries().size() == max) {
+        listing.setTruncated(true);
+        listing.setNextMarker(last);
+        return listing;
+      }
+      final S3ObjectSummary summary = new S3ObjectSummary();
+      summary.setBucketName(bucket.bucket.getName());
+      summary.setKey(entry.getKey());
+      summary.setETag(entry.getValue().getETag());
+      summary.setSize(entry.getValue().getContentLength());
+      summary.setLastModified(entry.getValue().getLastModified());
+      listing.getObjectSummaries().add(summary);
+      last = entry.getKey();
+    }
+    listing.setTruncated(false);
+    return listing;
+  }
+
+  public ObjectListing listObjects(final String name) {
+    return listObjects(new ListObjectsRequest().withBucketName(name));
+  }
+
+  public ObjectListing listNextBatchOfObjects(final ObjectListing previous) {
+    if (!previous.isTruncated()) {
+      final ObjectListing empty = new ObjectListing();
+      empty.setBucketName(previous.getBucketName());
+      empty.setPrefix(previous.getPrefix());
+      empty.setTruncated(false);
+      return empty;
+    }
+    return listObjects(new ListObjectsRequest(previous.getBucketName(), previous.getPrefix(), previous.getNextMarker(), null, previous.getMaxKeys()));
+  }
+
+  public synchronized void deleteObject(final String name, final String key) {
+    bucket(name).objects.remove(key);
+  }
+
+  public synchronized DeleteObjectsResult deleteObjects(final DeleteObjectsRequest request) {
+    if (request.getKeys().size() > 1000) {
+      throw failure("The XML you provided was not well-formed", "MalformedXML", 400);
+    }
+    final SimBucket bucket = bucket(request.getBucketName());
+    final ArrayList<DeleteObjectsResult.DeletedObject> deleted = new ArrayList<>();
+    for (final DeleteObjectsRequest.KeyVersion key : request.getKeys()) {
+      bucket.objects.remove(key.getKey());
+      final DeleteObjectsResult.DeletedObject done = new DeleteObjectsResult.DeletedObject();
+      done.setKey(key.getKey());
+      deleted.add(done);
+    }
+    return new DeleteObjectsResult(deleted);
+  }
+
+  /**
+   * @return how many buckets there are
+   */
+  public synchronized int bucketCount() {
+    return buckets.size();
+  }
+
+  /**
+   * @return how many objects there are across every bucket
+   */
+  public synchronized int objectCount() {
+    int count = 0;
+    for (final SimBucket bucket : buckets.values()) {
+      count += bucket.objects.size();
+    }
+    return count;
+  }
+
+  private synchronized void store(final String name, final String key, final ObjectMetadata metadata) {
+    metadata.setLastModified(new Date());
+    bucket(name).objects.put(key, metadata);
+  }
+
+  private SimBucket bucket(final String name) {
+    final SimBucket bucket = buckets.get(name);
+    if (bucket == null) {
+      throw failure("The specified bucket does not exist", "NoSuchBucket", 404);
+    }
+    return bucket;
+  }
+
+  private SimUpload upload(final String id) {
+    final SimUpload upload = uploads.get(id);
+    if (upload == null) {
+      throw failure("The specified upload does not exist", "NoSuchUpload", 404);
+    }
+    return upload;
+  }
+
+  private static ObjectMetadata copy(final ObjectMetadata metadata) {
+    final ObjectMetadata copy = new ObjectMetadata();
+    if (metadata != null) {
+      copy.setUserMetadata(new HashMap<>(metadata.getUserMetadata()));
+      if (metadata.getContentType() != null) {
+        copy.setContentType(metadata.getContentType());
+      }
+    }
+    return copy;
+  }
+
+  private static long digest(final InputStream input, final MessageDigest md5) throws Exception {
+    return digest(input, md5, Long.MAX_VALUE);
+  }
+
+  private static long digest(final InputStream input, final MessageDigest md5, final long limit) throws Exception {
+    final byte[] buffer = new byte[64 * 1024];
+    long total = 0;
+    while (total < limit) {
+      final int read = input.read(buffer, 0, (int) Math.min(buffer.length, limit - total));
+      if (read < 0) {
+        break;
+      }
+      md5.update(buffer, 0, read);
+      total += read;
+    }
+    return total;
+  }
+
+  private static AmazonS3Exception failure(final String message, final String errorCode, final int statusCode) {
+    final AmazonS3Exception failure = new AmazonS3Exception(message);
+    failure.setErrorCode(errorCode);
+    failure.setStatusCode(statusCode);
+    return failure;
+  }
+}
@@ -0,0 +1,151 @@
+package io.jeffrey.swam.templates;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.jknack.handlebars.Handlebars;
+import com.github.jknack.handlebars.Template;
+import com.github.jknack.handlebars.io.ClassPathTemplateLoader;
+import com.github.jknack.handlebars.io.FileTemplateLoader;
+import com.github.jknack.handlebars.io.TemplateLoader;
+
+/**
+ * The files a new website starts with (index.html, error.html, ...), rendered from Handlebars templates for each
+ * student. Every template is parsed and compiled once, when this is made, into a map which is never changed afterwards,
+ * so any number of sites may render at once without a lock and without parsing anything again.
+ * <p>
+ * The templates come from /templates on the classpath unless a directory is given, in which case every {uri}.hbs
+ * within the directory is a file of the starter site.
+ *
+ * @author jeffrey
+ */
+public class StarterTemplates {
+  /** the starter site which ships with us */
+  private static final List<String> BUILT_IN = Collections.unmodifiableList(Arrays.asList("index.html", "error.html", "style.css", "robots.txt"));
+  private static final String       SUFFIX   = ".hbs";
+
+  private final Map<String, Template> compiled;
+
+  /**
+   * the built in starter site
+   */
+  public StarterTemplates() {
+    this(new ClassPathTemplateLoader("/templates", SUFFIX), BUILT_IN);
+  }
+
+  /**
+   * the starter site within the given directory
+   */
+  public StarterTemplates(final File directory) {
+    this(new FileTemplateLoader(directory, SUFFIX), list(directory));
+  }
+
+  private StarterTemplates(final TemplateLoader loader, final List<String> uris) {
+    final Handlebars handlebars = new Handlebars(loader);
+    final LinkedHashMap<String, Template> templates = new LinkedHashMap<>();
+    for (final String uri : uris) {
+      try {
+        templates.put(uri, handlebars.compile(uri));
+      } catch (final IOException e) {
+        throw new UncheckedIOException("unable to compile the template for " + uri, e);
+      }
+    }
+    this.compiled = Collections.unmodifiableMap(templates);
+  }
+
+  /**
+   * @return the uris of every file of the starter site (in a stable order)
+   */
+  public List<String> uris() {
+    return new ArrayList<>(compiled.keySet());
+  }
+
+  /**
+   * @return the context a site is rendered with; the name is the first label of the domain (i.e. alice for
+   *         alice.class.example.com)
+   */
+  public static Map<String, Object> context(final String domain) {
+    final HashMap<String, Object> context = new HashMap<>();
+    final int dot = domain.indexOf('.');
+    context.put("name", dot > 0 ? domain.substring(0, dot) : domain);
+    context.put("domain", domain);
+    context.put("url", "http://" + domain + "/");
+    context.put("year", Calendar.getInstance().get(Calendar.YEAR));
+    return context;
+  }
+
+  /**
+   * render a single file of the starter site
+   *
+   * @throws IllegalArgumentException if there is no template for the uri
+   */
+  public String render(final String uri, final Map<String, Object> context) throws IOException {
+    final Template template = compiled.get(uri);
+    if (template == null) {
+      throw new IllegalArgumentException("no template for " + uri);
+    }
+    return template.apply(context);
+  }
+
+  /**
+   * @return the content type to serve the file as (by its extension)
+   */
+  public static String contentType(final String uri) {
+    final String lower = uri.toLowerCase();
+    if (lower.endsWith(".html") || lower.endsWith(".htm")) {
+      return "text/html; charset=utf-8";
+    }
+    if (lower.endsWith(".css")) {
+      return "text/css; charset=utf-8";
+    }
+    if (lower.endsWith(".js")) {
+      return "application/javascript; charset=utf-8";
+    }
+    if (lower.endsWith(".txt")) {
+      return "text/plain; charset=utf-8";
+    }
+    if (lower.endsWith(".json")) {
+      return "application/json; charset=utf-8";
+    }
+    if (lower.endsWith(".svg")) {
+      return "image/svg+xml";
+    }
+    return "application/octet-stream";
+  }
+
+  /**
+   * @return the uri of every template within the directory (and its subdirectories)
+   */
+  private static List<String> list(final File directory) {
+    if (!directory.isDirectory()) {
+      throw new IllegalArgumentException(directory + " is not a directory of templates");
+    }
+    final ArrayList<String> uris = new ArrayList<>();
+    list(directory, "", uris);
+    Collections.sort(uris);
+    return uris;
+  }
+
+  private static void list(final File directory, final String prefix, final List<String> uris) {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File file : files) {
+      if (file.isDirectory()) {
+        list(file, prefix + file.getName() + "/", uris);
+      } else if (file.getName().endsWith(SUFFIX)) {
+        uris.add(prefix + file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+      }
+    }
+  }
+}
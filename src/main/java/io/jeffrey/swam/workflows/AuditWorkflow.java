@@ -0,0 +1,348 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ListHostedZonesRequest;
+import com.amazonaws.services.route53.model.ListHostedZonesResult;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+
+/**
+ * A read-only scan of the whole account which compares every site against what CreateWebsiteWorkflow would have made
+ * (the apex alias, the www CNAME, one website bucket and one redirect bucket, and the index and error documents).
+ * <p>
+ * Hosted zones are listed a page at a time and each zone's records are streamed on a bounded pool of workers; only the
+ * records which point at S3 are kept (and only until the zone is done), and each site found is checked on the same
+ * pool. Findings are handed to the listener as soon as a site is checked rather than at the end. Once every zone is
+ * done, the buckets which no site uses are reported as orphans.
+ *
+ * @author jeffrey
+ */
+public class AuditWorkflow {
+
+  /**
+   * What the audit found about a single site (or an orphaned bucket)
+   */
+  public static class Finding {
+    /** the site's domain, or the bucket for an orphan */
+    public final String       subject;
+    /** "site" or "orphan" */
+    public final String       kind;
+    /** what differs from what setupDomain would make (empty if nothing does) */
+    public final List<String> problems;
+
+    private Finding(final String subject, final String kind, final List<String> problems) {
+      this.subject = subject;
+      this.kind = kind;
+      this.problems = Collections.unmodifiableList(problems);
+    }
+
+    public boolean ok() {
+      return problems.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      if ("orphan".equals(kind)) {
+        return "ORPHAN " + subject + " " + String.join("; ", problems);
+      }
+      if (ok()) {
+        return "OK     " + subject;
+      }
+      return "DRIFT  " + subject + " " + String.join("; ", problems);
+    }
+  }
+
+  /**
+   * How the audit went as a whole
+   */
+  public static class Summary {
+    public final int  zones;
+    public final int  sites;
+    public final int  drifted;
+    public final int  orphans;
+    public final long durationMs;
+
+    private Summary(final int zones, final int sites, final int drifted, final int orphans, final long durationMs) {
+      this.zones = zones;
+      this.sites = sites;
+      this.drifted = drifted;
+      this.orphans = orphans;
+      this.durationMs = durationMs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return "zones=" + zones + " sites=" + sites + " drifted=" + drifted + " orphans=" + orphans + " wall=" + durationMs + "ms";
+    }
+  }
+
+  /**
+   * the records of a zone which point at S3 for a single site
+   */
+  private static class SiteRecords {
+    private ResourceRecordSet alias;
+    private ResourceRecordSet cname;
+  }
+
+  private final WorkflowStatusLog log;
+  private final Universe          universe;
+  private final int               parallelism;
+
+  /**
+   * @param universe all things Amazon
+   * @param parallelism the maximum number of zones and sites being checked at the same time
+   */
+  public AuditWorkflow(final WorkflowStatusLog log, final Universe universe, final int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.log = log;
+    this.universe = universe;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * audit every site in the account; nothing is changed
+   *
+   * @param listener told of each finding as soon as it is known (called from many threads, one finding at a time)
+   */
+  public Summary audit(final Consumer<Finding> listener) throws Exception {
+    log.event(Level.INFO, "audit", "start", "parallelism", parallelism);
+    final long started = System.currentTimeMillis();
+    final AtomicInteger zones = new AtomicInteger(0);
+    final AtomicInteger sites = new AtomicInteger(0);
+    final AtomicInteger drifted = new AtomicInteger(0);
+    final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    final Consumer<Finding> emit = (finding) -> {
+      if ("site".equals(finding.kind)) {
+        sites.incrementAndGet();
+      }
+      if (!finding.ok()) {
+        drifted.incrementAndGet();
+      }
+      synchronized (listener) {
+        listener.accept(finding);
+      }
+    };
+
+    // when the queue is full the submitter checks the zone (or site) itself, which keeps the listing from running ahead
+    final AtomicInteger count = new AtomicInteger(0);
+    final ThreadPoolExecutor workers = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(parallelism * 4), (r) -> {
+      final Thread thread = new Thread(r, "audit-worker-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }, new ThreadPoolExecutor.CallerRunsPolicy());
+    final Phaser pending = new Phaser(1);
+    try {
+      final ListHostedZonesRequest request = new ListHostedZonesRequest();
+      while (true) {
+        final ListHostedZonesResult result = universe.route53.listHostedZones(request);
+        for (final HostedZone zone : result.getHostedZones()) {
+          zones.incrementAndGet();
+          submit(workers, pending, () -> auditZone(zone, workers, pending, claimed, emit));
+        }
+        if (!result.isTruncated()) {
+          break;
+        }
+        request.setMarker(result.getNextMarker());
+      }
+      pending.arriveAndAwaitAdvance();
+    } finally {
+      workers.shutdownNow();
+    }
+
+    int orphans = 0;
+    for (final Bucket bucket : universe.s3.listBuckets()) {
+      if (!claimed.contains(bucket.getName())) {
+        orphans++;
+        emit.accept(new Finding(bucket.getName(), "orphan", Collections.singletonList("no site in any zone uses this bucket")));
+      }
+    }
+    final Summary summary = new Summary(zones.get(), sites.get(), drifted.get() - orphans, orphans, System.currentTimeMillis() - started);
+    log.event(Level.INFO, "audit", "end", "summary", summary);
+    return summary;
+  }
+
+  /**
+   * run the task on the pool and track it until it is done
+   */
+  private void submit(final ThreadPoolExecutor workers, final Phaser pending, final Runnable task) {
+    pending.register();
+    workers.execute(() -> {
+      try {
+        task.run();
+      } catch (final RuntimeException e) {
+        log.event(Level.ERROR, "audit", "task failed", "error", e.getMessage());
+      } finally {
+        pending.arriveAndDeregister();
+      }
+    });
+  }
+
+  /**
+   * stream the records of the zone, keep only what points at S3, and check each site found
+   */
+  private void auditZone(final HostedZone zone, final ThreadPoolExecutor workers, final Phaser pending, final Set<String> claimed, final Consumer<Finding> emit) {
+    final HashMap<String, SiteRecords> found = new HashMap<>();
+    universe.records.forEach(zone.getId(), (set) -> {
+      final String name = trimDot(set.getName());
+      if ("A".equals(set.getType()) && set.getAliasTarget() != null && region(set.getAliasTarget().getDNSName()) != null) {
+        found.computeIfAbsent(name, (k) -> new SiteRecords()).alias = set;
+      } else if ("CNAME".equals(set.getType()) && name.startsWith("www.") && set.getResourceRecords() != null && set.getResourceRecords().size() == 1) {
+        if (region(set.getResourceRecords().get(0).getValue()) != null) {
+          found.computeIfAbsent(name.substring(4), (k) -> new SiteRecords()).cname = set;
+        }
+      }
+    });
+    log.event(Level.DEBUG, "audit", "zone", "name", zone.getName(), "sites", found.size());
+    for (final Map.Entry<String, SiteRecords> entry : found.entrySet()) {
+      final String domain = entry.getKey();
+      claimed.add(domain);
+      claimed.add("www." + domain);
+      submit(workers, pending, () -> emit.accept(auditSite(domain, entry.getValue())));
+    }
+  }
+
+  /**
+   * check a single site against what setupDomain would make
+   */
+  private Finding auditSite(final String domain, final SiteRecords records) {
+    final long started = System.nanoTime();
+    final String wwwDomain = "www." + domain;
+    final ArrayList<String> problems = new ArrayList<>();
+
+    HostingRegion region = null;
+    if (records.alias == null) {
+      problems.add("no A alias for " + domain);
+    } else {
+      region = region(records.alias.getAliasTarget().getDNSName());
+      if (!region.zoneId.equals(records.alias.getAliasTarget().getHostedZoneId())) {
+        problems.add("A alias for " + domain + " names zone " + records.alias.getAliasTarget().getHostedZoneId() + " rather than " + region.zoneId);
+      }
+    }
+    if (records.cname == null) {
+      problems.add("no CNAME for " + wwwDomain);
+    } else {
+      final String value = trimDot(records.cname.getResourceRecords().get(0).getValue());
+      final HostingRegion cnameRegion = region(value);
+      if (region == null) {
+        region = cnameRegion;
+      } else if (cnameRegion != region) {
+        problems.add("CNAME for " + wwwDomain + " is in " + cnameRegion + " while the A alias is in " + region);
+      }
+      if (!value.equalsIgnoreCase(wwwDomain + "." + cnameRegion.s3Domain)) {
+        problems.add("CNAME for " + wwwDomain + " points at " + value + " rather than " + wwwDomain + "." + cnameRegion.s3Domain);
+      }
+    }
+
+    final BucketWebsiteConfiguration apex = website(domain, problems);
+    final BucketWebsiteConfiguration www = website(wwwDomain, problems);
+    if (apex != null && www != null) {
+      final boolean apexRedirects = apex.getRedirectAllRequestsTo() != null;
+      final boolean wwwRedirects = www.getRedirectAllRequestsTo() != null;
+      if (apexRedirects == wwwRedirects) {
+        problems.add(apexRedirects ? "both buckets redirect" : "both buckets are websites");
+      } else {
+        final String primary = wwwRedirects ? domain : wwwDomain;
+        final BucketWebsiteConfiguration redirect = wwwRedirects ? www : apex;
+        final String redirectBucket = wwwRedirects ? wwwDomain : domain;
+        final String target = redirect.getRedirectAllRequestsTo().getHostName();
+        if (!primary.equalsIgnoreCase(target)) {
+          problems.add("bucket " + redirectBucket + " redirects to " + target + " rather than " + primary);
+        }
+        final BucketWebsiteConfiguration website = wwwRedirects ? apex : www;
+        asset(primary, website.getIndexDocumentSuffix(), "index document", problems);
+        asset(primary, website.getErrorDocument(), "error document", problems);
+      }
+    }
+    universe.metrics.record("audit.site", started, false);
+    return new Finding(domain, "site", problems);
+  }
+
+  /**
+   * @return the website configuration of the bucket, or null (with the problem noted) if there is no bucket or
+   *         configuration
+   */
+  private BucketWebsiteConfiguration website(final String bucket, final List<String> problems) {
+    try {
+      final BucketWebsiteConfiguration config = universe.s3.getBucketWebsiteConfiguration(bucket);
+      if (config == null) {
+        problems.add("bucket " + bucket + " has no website configuration");
+      }
+      return config;
+    } catch (final AmazonS3Exception e) {
+      if (e.getStatusCode() == 404 || "NoSuchBucket".equals(e.getErrorCode())) {
+        problems.add("no bucket " + bucket);
+        return null;
+      }
+      problems.add("bucket " + bucket + " can not be read: " + e.getErrorCode());
+      return null;
+    }
+  }
+
+  /**
+   * HEAD the document the website configuration names
+   */
+  private void asset(final String bucket, final String key, final String what, final List<String> problems) {
+    if (key == null) {
+      problems.add("bucket " + bucket + " has no " + what);
+      return;
+    }
+    try {
+      universe.s3.getObjectMetadata(bucket, key);
+    } catch (final AmazonS3Exception e) {
+      if (e.getStatusCode() == 404 || "NoSuchKey".equalsIgnoreCase(e.getErrorCode())) {
+        problems.add("bucket " + bucket + " is missing its " + what + " " + key);
+      } else {
+        problems.add("bucket " + bucket + " can not read " + key + ": " + e.getErrorCode());
+      }
+    }
+  }
+
+  /**
+   * @return the region whose S3 website endpoint the name ends with (null if it is not an S3 website)
+   */
+  private static HostingRegion region(final String name) {
+    if (name == null) {
+      return null;
+    }
+    final String trimmed = trimDot(name).toLowerCase();
+    for (final HostingRegion region : HostingRegion.values()) {
+      if (trimmed.equals(region.s3Domain) || trimmed.endsWith("." + region.s3Domain)) {
+        return region;
+      }
+    }
+    return null;
+  }
+
+  private static String trimDot(final String name) {
+    return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+  }
+}
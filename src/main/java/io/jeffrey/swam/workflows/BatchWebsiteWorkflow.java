@@ -0,0 +1,179 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniversePool;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provisions many domains at once (i.e. a classroom) on a bounded pool of workers which all share the same universe
+ * (or the same pool of universes, where each domain is provisioned within the account it is placed on)
+ *
+ * @author jeffrey
+ */
+public class BatchWebsiteWorkflow {
+
+  /**
+   * The result of provisioning a single domain within the batch
+   */
+  public static class Outcome {
+    public final String                  domain;
+    /** the account the domain was placed on */
+    public final String                  account;
+    public final long                    durationMs;
+    public final Set<String>             changeIds;
+    /** completes with the ms from the start of the domain's setup until its DNS was live everywhere */
+    public final CompletableFuture<Long> liveMs;
+    public final Exception               failure;
+
+    private Outcome(final String domain, final String account, final long durationMs, final Set<String> changeIds, final CompletableFuture<Long> liveMs, final Exception failure) {
+      this.domain = domain;
+      this.account = account;
+      this.durationMs = durationMs;
+      this.changeIds = changeIds;
+      this.liveMs = liveMs;
+      this.failure = failure;
+    }
+
+    public boolean succeeded() {
+      return failure == null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      if (succeeded()) {
+        return "OK   " + domain + " " + durationMs + "ms account=" + account + " changes=" + changeIds;
+      }
+      return "FAIL " + domain + " " + durationMs + "ms " + failure.getClass().getSimpleName() + ":" + failure.getMessage();
+    }
+  }
+
+  /**
+   * read the domains from disk; one per line where blank lines and # comments are ignored
+   */
+  public static List<String> readDomains(final File file) throws Exception {
+    final BufferedReader reader = new BufferedReader(new FileReader(file));
+    try {
+      final ArrayList<String> domains = new ArrayList<>();
+      String ln;
+      while ((ln = reader.readLine()) != null) {
+        ln = ln.trim();
+        if (ln.length() == 0 || ln.charAt(0) == '#') {
+          continue;
+        }
+        domains.add(ln);
+      }
+      return domains;
+    } finally {
+      reader.close();
+    }
+  }
+
+  private final WorkflowStatusLog                  log;
+  private final UniversePool                       pool;
+  private final Map<String, CreateWebsiteWorkflow> creators;
+  private final int                                parallelism;
+
+  /**
+   * @param universe all things Amazon (shared by every worker)
+   * @param parallelism the maximum number of domains being provisioned at the same time
+   */
+  public BatchWebsiteWorkflow(final WorkflowStatusLog log, final Universe universe, final int parallelism) {
+    this(log, new UniversePool(universe), parallelism);
+  }
+
+  /**
+   * @param pool the accounts which domains are placed on (shared by every worker)
+   * @param parallelism the maximum number of domains being provisioned at the same time (across every account)
+   */
+  public BatchWebsiteWorkflow(final WorkflowStatusLog log, final UniversePool pool, final int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.log = log;
+    this.pool = pool;
+    this.creators = new HashMap<>();
+    for (final UniversePool.Shard shard : pool.shards()) {
+      creators.put(shard.name, new CreateWebsiteWorkflow(log, shard.universe));
+    }
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * provision every domain; a failure of one domain does not stop the others
+   *
+   * @return the outcomes in the same order as the given domains
+   */
+  public List<Outcome> setupDomains(final List<String> domains, final HostingRegion region) throws Exception {
+    log.event(Level.INFO, "setupDomains", "start", "domains", domains.size(), "parallelism", parallelism);
+    final ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, domains.size())), new WorkerFactory());
+    try {
+      final ArrayList<Future<Outcome>> futures = new ArrayList<>();
+      for (final String domain : domains) {
+        futures.add(workers.submit(() -> setupOne(domain, region)));
+      }
+      final ArrayList<Outcome> outcomes = new ArrayList<>();
+      for (final Future<Outcome> future : futures) {
+        outcomes.add(future.get());
+      }
+      log.event(Level.INFO, "setupDomains", "end");
+      return outcomes;
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * place (if needed) and provision a single domain and capture how it went
+   */
+  private Outcome setupOne(final String domain, final HostingRegion region) {
+    final long started = System.currentTimeMillis();
+    String account = null;
+    try {
+      account = pool.place(domain).name;
+      final CreateWebsiteWorkflow creator = creators.get(account);
+      final Set<String> changeIds = creator.setupDomain(domain, region);
+      final CompletableFuture<Long> liveMs = creator.whenLive(changeIds).thenApply((ignored) -> System.currentTimeMillis() - started);
+      return new Outcome(domain, account, System.currentTimeMillis() - started, changeIds, liveMs, null);
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "setupDomains", "failed", "domain", domain, "error", e.getMessage());
+      final CompletableFuture<Long> liveMs = new CompletableFuture<>();
+      liveMs.completeExceptionally(e);
+      return new Outcome(domain, account, System.currentTimeMillis() - started, Collections.<String> emptySet(), liveMs, e);
+    }
+  }
+
+  /**
+   * name the worker threads so the logs are readable
+   */
+  private static class WorkerFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(final Runnable r) {
+      final Thread thread = new Thread(r, "batch-worker-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
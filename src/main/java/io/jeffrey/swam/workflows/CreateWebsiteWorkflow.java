@@ -1,34 +1,36 @@
 package io.jeffrey.swam.workflows;
 
 import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
 import io.jeffrey.swam.amazon.HostingRegion;
 import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.templates.StarterTemplates;
+import io.jeffrey.swam.workflows.WebsiteResources.IdealizedBucketConfig;
 
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
 
-import com.amazonaws.services.route53.model.AliasTarget;
 import com.amazonaws.services.route53.model.Change;
 import com.amazonaws.services.route53.model.ChangeAction;
-import com.amazonaws.services.route53.model.ChangeBatch;
-import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
-import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.CreateHostedZoneResult;
+import com.amazonaws.services.route53.model.GetHostedZoneRequest;
 import com.amazonaws.services.route53.model.HostedZone;
-import com.amazonaws.services.route53.model.HostedZoneConfig;
-import com.amazonaws.services.route53.model.ListHostedZonesRequest;
-import com.amazonaws.services.route53.model.ListHostedZonesResult;
-import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
-import com.amazonaws.services.route53.model.ListResourceRecordSetsResult;
-import com.amazonaws.services.route53.model.RRType;
-import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.NoSuchHostedZoneException;
 import com.amazonaws.services.route53.model.ResourceRecordSet;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
-import com.amazonaws.services.s3.model.CannedAccessControlList;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.RedirectRule;
-import com.amazonaws.services.s3.model.StorageClass;
 
 /**
  * Experimental workflow for creating a website with Route53 and S3.
@@ -36,76 +38,164 @@ import com.amazonaws.services.s3.model.StorageClass;
  * @author jeffrey
  */
 public class CreateWebsiteWorkflow {
-  /**
-   * How should a bucket be configured? If think about fo.io and www.foo.io, then
-   * one of them is a redirect while the other is a real website. In the world of
-   * SWAM, we will think that fo.io is the real website whil www.foo.io is the
-   * redirect
-   *
-   * @author jeffrey
-   */
-  private static enum IdealizedBucketConfig {
-    Website, Redirect
-  }
-
   private final WorkflowStatusLog log;
   private final Universe universe;
+  private final Executor executor;
+  /** domains whose journal is too old to trust, so every journaled step is confirmed (as with journalVerify) */
+  private final Set<String> verifying;
 
   /**
    * @param universe all things Amazon
    */
   public CreateWebsiteWorkflow(final WorkflowStatusLog log, final Universe universe) {
+    this(log, universe, universe.executor);
+  }
+
+  /**
+   * @param universe all things Amazon
+   * @param executor where the stages of a setup run (must not be bounded by the callers of setupDomain)
+   */
+  public CreateWebsiteWorkflow(final WorkflowStatusLog log, final Universe universe, final Executor executor) {
     this.log = log;
     this.universe = universe;
+    this.executor = executor;
+    this.verifying = ConcurrentHashMap.newKeySet();
   }
 
   /**
-   * add the set to the hosted zone
+   * add the set to the hosted zone; the change is coalesced with other changes to the same zone
    */
-  private void addResourceRecordSet(final ResourceRecordSet set, final HostedZone zone) {
+  private CompletableFuture<ChangeInfo> addResourceRecordSet(final String domain, final ResourceRecordSet set, final HostedZone zone) {
     final Change change = new Change();
     change.setAction(ChangeAction.CREATE);
     change.setResourceRecordSet(set);
-    final ChangeResourceRecordSetsRequest request = new ChangeResourceRecordSetsRequest();
-    final ChangeBatch batch = new ChangeBatch();
-    batch.setChanges(Collections.singleton(change));
-    request.setChangeBatch(batch);
-    request.setHostedZoneId(zone.getId());
-    universe.route53.changeResourceRecordSets(request);
+    return universe.changes.submit(zone.getId(), change).thenApply((info) -> {
+      universe.records.put(zone.getId(), set);
+      journal(domain, recordStep(set.getName(), set.getType()), info.getId());
+      return info;
+    });
   }
 
   /**
-   * If the website configuration exists, then it is already configured. If it isn't
-   * configured, then what ever we desire to be the configuration shall be.
+   * @return the value journaled for the step (null if it is not journaled)
    */
-  private IdealizedBucketConfig classify(final String bucket, final IdealizedBucketConfig desired) {
-    final BucketWebsiteConfiguration config = universe.s3.getBucketWebsiteConfiguration(bucket);
-    if (config == null) {
-      return desired;
+  private String journaled(final String domain, final String step) {
+    return universe.journal.get(domain, step);
+  }
+
+  /**
+   * @return should the journaled steps of the domain be confirmed with a cheap read before they are skipped
+   */
+  private boolean verify(final String domain) {
+    return universe.settings.journalVerify || verifying.contains(domain.toLowerCase());
+  }
+
+  /**
+   * @return is the domain journaled as complete recently enough to skip it outright
+   */
+  private boolean trustedComplete(final String domain) {
+    final String completed = journaled(domain, "complete");
+    if (completed == null) {
+      return false;
     }
-    // it has already been configured as a redirect, so let's ensure the other is the primary
-    if (config.getRedirectAllRequestsTo() != null) {
-      return IdealizedBucketConfig.Redirect;
+    final long trust = universe.settings.journalTrustMs;
+    return trust <= 0 || System.currentTimeMillis() - Long.parseLong(completed) < trust;
+  }
+
+  /**
+   * durably note that the step is done
+   */
+  private void journal(final String domain, final String step, final String value) {
+    try {
+      universe.journal.record(domain, step, value);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
     }
-    return IdealizedBucketConfig.Website;
   }
 
   /**
-   * does the bucket need the given asset (i.e. it is gone and required)
+   * the journal was wrong about a step, so forget it and do the step for real
    */
-  private boolean needsAsset(final String bucket, String uri, IdealizedBucketConfig status) {
-    log.log("needsAsset", "bucket=", bucket, "uri=", uri);
-    if (status != IdealizedBucketConfig.Website) {
-      log.log("needsAsset", "does not require asset");
-      return false;
+  private void unjournal(final String domain, final String step) {
+    log.event(Level.WARN, "journal", "step failed verification", "domain", domain, "step", step);
+    try {
+      universe.journal.forget(domain, step);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static String recordStep(final String name, final String type) {
+    return "record:" + (name.endsWith(".") ? name : name + ".").toLowerCase() + "|" + type.toUpperCase();
+  }
+
+  /**
+   * @return the zone from the journal (null if not journaled or, when verifying, it is gone)
+   */
+  private HostedZone journaledZone(final String domain) {
+    final String value = journaled(domain, "zone");
+    if (value == null) {
+      return null;
+    }
+    final String[] parts = value.split(" ", 2);
+    if (verify(domain)) {
+      try {
+        return universe.route53.getHostedZone(new GetHostedZoneRequest(parts[0])).getHostedZone();
+      } catch (final NoSuchHostedZoneException e) {
+        unjournal(domain, "zone");
+        return null;
+      }
+    }
+    return new HostedZone(parts[0], parts[1], null);
+  }
+
+  /**
+   * @return how the bucket was configured according to the journal (null if not journaled or, when verifying, the
+   *         bucket no longer has that configuration)
+   */
+  private IdealizedBucketConfig journaledBucket(final String domain, final String bucket) {
+    final String step = "bucket:" + bucket;
+    final String value = journaled(domain, step);
+    if (value == null) {
+      return null;
     }
+    final IdealizedBucketConfig status = IdealizedBucketConfig.valueOf(value);
+    if (verify(domain)) {
+      try {
+        final BucketWebsiteConfiguration config = universe.s3.getBucketWebsiteConfiguration(bucket);
+        if (config == null || (config.getRedirectAllRequestsTo() != null) != (status == IdealizedBucketConfig.Redirect)) {
+          unjournal(domain, step);
+          return null;
+        }
+      } catch (final AmazonS3Exception e) {
+        unjournal(domain, step);
+        return null;
+      }
+    }
+    return status;
+  }
+
+  /**
+   * read the bucket's website configuration and classify it (see WebsiteResources.classify)
+   */
+  private IdealizedBucketConfig classify(final String bucket, final IdealizedBucketConfig desired) {
+    return WebsiteResources.classify(universe.s3.getBucketWebsiteConfiguration(bucket), desired);
+  }
+
+  /**
+   * does the (website) bucket need the given asset (i.e. it is gone)
+   */
+  private boolean needsAsset(final String bucket, final String uri) {
     try {
-      log.log("needsAsset", "checking asset exists");
-      universe.s3.getObject(bucket, uri);
+      if (log.isEnabled(Level.DEBUG)) {
+        log.event(Level.DEBUG, "needsAsset", "checking asset exists", "bucket", bucket, "uri", uri);
+      }
+      // HEAD only; there is no body to download or connection to leak
+      universe.s3.getObjectMetadata(bucket, uri);
       return false;
     } catch (AmazonS3Exception e) {
-      if (e.getErrorCode().equalsIgnoreCase("NoSuchKey")) {
-        log.log("needsAsset", "asset does not exist, will need to create it");
+      if (e.getStatusCode() == 404 || "NoSuchKey".equalsIgnoreCase(e.getErrorCode())) {
+        log.event(Level.INFO, "needsAsset", "asset does not exist, will need to create it", "bucket", bucket, "uri", uri);
         return true;
       } else {
         return false;
@@ -114,222 +204,308 @@ public class CreateWebsiteWorkflow {
   }
 
   /**
-   * upload html to a bucket 
+   * upload a rendered file to a bucket
    */
-  private void uploadHTML(String bucket, String uri, String body) throws Exception {
-    log.log("uploadHTML", "bucket=", bucket, "uri=", uri, "body=", body);
-    byte[] bytes = body.getBytes("UTF-8");
-    ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
-    ObjectMetadata metadata = new ObjectMetadata();
-    metadata.setContentLength(bytes.length);
-    metadata.setContentType("text/html");
-    PutObjectRequest request = new PutObjectRequest(bucket, uri, stream, metadata);
-    request.setCannedAcl(CannedAccessControlList.PublicRead);
-    request.setStorageClass(StorageClass.ReducedRedundancy);
-    universe.s3.putObject(request);
-
+  private void uploadFile(final String bucket, final String uri, final String body) throws Exception {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    log.event(Level.INFO, "uploadFile", "uploading", "bucket", bucket, "uri", uri, "bytes", bytes.length);
+    WebsiteResources.upload(universe, bucket, uri, bytes);
   }
 
   /**
    * attempt to configure the bucket with a new website configuration
    */
   private void configureBucket(final String bucket, final IdealizedBucketConfig status, final String primaryDomain) {
-    log.log("configureBucket", "bucket=", bucket);
-    final BucketWebsiteConfiguration configuration = new BucketWebsiteConfiguration();
     if (status == IdealizedBucketConfig.Website) {
-      log.log("configureBucket", "bucket=", bucket, "primary");
-      configuration.setIndexDocumentSuffix("index.html");
-      configuration.setErrorDocument("error.html");
+      log.event(Level.INFO, "configureBucket", "primary", "bucket", bucket);
     } else {
-      log.log("configureBucket", "bucket=", bucket, "redirect;to=", primaryDomain);
-      final RedirectRule rule = new RedirectRule();
-      rule.setHostName(primaryDomain);
-      rule.setHttpRedirectCode("301");
-      configuration.setRedirectAllRequestsTo(rule);
+      log.event(Level.INFO, "configureBucket", "redirect", "bucket", bucket, "to", primaryDomain);
     }
-    universe.s3.setBucketWebsiteConfiguration(bucket, configuration);
+    universe.s3.setBucketWebsiteConfiguration(bucket, WebsiteResources.configuration(status, primaryDomain));
   }
   
-  private void uploadAssets(String bucket, final IdealizedBucketConfig status) throws Exception {
-    if (needsAsset(bucket, "index.html", status)) {
-      String html = "<html><head></head><body>Hello World!</body></html>";
-      uploadHTML(bucket, "index.html", html);
+  /**
+   * upload every file of the starter site (rendered for the domain) that the bucket lacks; each file is its own stage
+   * so the files go up side by side
+   */
+  private CompletableFuture<Void> uploadAssets(final String name, final String domain, final String bucket, final CompletableFuture<IdealizedBucketConfig> status) {
+    final Map<String, Object> context = StarterTemplates.context(domain);
+    final List<String> uris = universe.templates.uris();
+    final CompletableFuture<?>[] uploads = new CompletableFuture<?>[uris.size()];
+    for (int k = 0; k < uploads.length; k++) {
+      final String uri = uris.get(k);
+      uploads[k] = stage(name, () -> {
+        uploadAsset(domain, bucket, uri, context, status.join());
+        return null;
+      }, status);
     }
-    if (needsAsset(bucket, "error.html", status)) {
-      String html = "<html><head></head><body>ERROR</body></html>";
-      uploadHTML(bucket, "error.html", html);
+    return CompletableFuture.allOf(uploads);
+  }
+
+  /**
+   * upload the asset if it is needed; a journaled asset is trusted unless we are verifying (and then the HEAD within
+   * needsAsset is the verification). The asset is only rendered when it is uploaded.
+   */
+  private void uploadAsset(final String domain, final String bucket, final String uri, final Map<String, Object> context, final IdealizedBucketConfig status) throws Exception {
+    if (status != IdealizedBucketConfig.Website) {
+      // a redirect serves no assets
+      return;
     }
+    final String step = "asset:" + bucket + "/" + uri;
+    if (!verify(domain) && journaled(domain, step) != null) {
+      return;
+    }
+    if (needsAsset(bucket, uri)) {
+      uploadFile(bucket, uri, universe.templates.render(uri, context));
+    }
+    journal(domain, step, "present");
   }
 
   /**
-   * Create a domain using Route53 and S3
+   * Create a domain using Route53 and S3. The work is a small graph of stages where each stage starts as soon as the
+   * stages it depends on are done, so the latency is the critical path rather than the sum of every step:
+   *
+   * <pre>
+   * ensureHostedZoneExists --+--> linkApex
+   *                          +--> linkByCname
+   * ensureWwwBucket --> classifyWww --+--> configureWww, uploadWwwAssets
+   * ensureApexBucket -----------------+--> classifyApex --> configureApex, uploadApexAssets
+   * </pre>
+   *
+   * Every step that completes is journaled, so a re-run skips straight past what is already done (or, with
+   * journalVerify, confirms each journaled step with a single cheap read). A domain journaled as complete longer ago
+   * than journalTrustMs is confirmed the same way, since the world may have changed underneath a long-lived process.
+   *
+   * @return the ids of the Route53 changes made for the domain (empty if DNS was already linked); see whenLive
    */
-  public void setupDomain(final String domain, final HostingRegion region) throws Exception {
+  public Set<String> setupDomain(final String domain, final HostingRegion region) throws Exception {
     if (region == null) {
       throw new NullPointerException("region is null");
     }
     if (domain == null) {
       throw new NullPointerException("domain is null");
     }
-    log.log("setupDomain", "start", "domain=", domain, "region=", region.s3Domain);
+    log.event(Level.INFO, "setupDomain", "start", "domain", domain, "region", region.s3Domain);
+    final long started = System.nanoTime();
+    boolean failed = true;
+    try {
+      final Set<String> changeIds = setupDomainStages(domain, region);
+      failed = false;
+      return changeIds;
+    } finally {
+      universe.metrics.record("workflow.setupDomain", started, failed);
+    }
+  }
+
+  /**
+   * build and run the stage graph for a domain
+   */
+  private Set<String> setupDomainStages(final String domain, final HostingRegion region) throws Exception {
+    if (!universe.settings.journalVerify && trustedComplete(domain)) {
+      log.event(Level.INFO, "setupDomain", "journaled as complete", "domain", domain);
+      return Collections.emptySet();
+    }
+    final boolean stale = journaled(domain, "complete") != null;
+    if (stale) {
+      log.event(Level.INFO, "setupDomain", "journaled as complete too long ago; verifying", "domain", domain);
+      verifying.add(domain.toLowerCase());
+    }
+    try {
+      return runStages(domain, region);
+    } finally {
+      if (stale) {
+        verifying.remove(domain.toLowerCase());
+      }
+    }
+  }
 
-    // step 1: set up DNS
-    log.log("setupDomain", "stage=", "ensureHostedZoneExists");
-    final HostedZone zone = ensureHostedZoneExists(domain);
+  /**
+   * the stage graph itself
+   */
+  private Set<String> runStages(final String domain, final HostingRegion region) throws Exception {
+    final String wwwDomain = "www." + domain;
 
-    // step 2: set up S3 buckets and make websites
-    log.log("setupDomain", "stage=", "setupBuckets");
-    setupBuckets(domain, region);
+    // DNS
+    final Set<String> changeIds = new ConcurrentSkipListSet<>();
+    final CompletableFuture<HostedZone> zone = stage("ensureHostedZoneExists", () -> ensureHostedZoneExists(domain, changeIds));
 
-    // step 3: link route53 to s3
-    log.log("setupDomain", "stage=", "linkApex");
-    linkApex(domain, zone, region);
+    // S3 buckets and websites; a journaled bucket exists and is configured as the journal says
+    final CompletableFuture<IdealizedBucketConfig> apexBucket = stage("ensureApexBucket", () -> {
+      final IdealizedBucketConfig known = journaledBucket(domain, domain);
+      if (known == null) {
+        ensureCriticalBucketsExist(domain, region);
+      }
+      return known;
+    });
+    final CompletableFuture<IdealizedBucketConfig> wwwBucket = stage("ensureWwwBucket", () -> {
+      final IdealizedBucketConfig known = journaledBucket(domain, wwwDomain);
+      if (known == null) {
+        ensureCriticalBucketsExist(wwwDomain, region);
+      }
+      return known;
+    });
+    // attempt to classify www as a redirect
+    final CompletableFuture<IdealizedBucketConfig> wwwStatus = stage("classifyWww", () -> {
+      if (wwwBucket.join() != null) {
+        return wwwBucket.join();
+      }
+      return classify(wwwDomain, IdealizedBucketConfig.Redirect);
+    }, wwwBucket);
+    final CompletableFuture<IdealizedBucketConfig> apexStatus = stage("classifyApex", () -> {
+      if (apexBucket.join() != null) {
+        return apexBucket.join();
+      }
+      if (wwwStatus.join() == IdealizedBucketConfig.Website) {
+        log.event(Level.DEBUG, "setupBuckets", "www is a website", "domain", domain);
+        final IdealizedBucketConfig status = classify(domain, IdealizedBucketConfig.Redirect);
+        log.event(Level.DEBUG, "setupBuckets", status == IdealizedBucketConfig.Website ? "apex is a website" : "apex is redirect", "domain", domain);
+        return status;
+      }
+      log.event(Level.DEBUG, "setupBuckets", "www is a redirect", "domain", domain);
+      return IdealizedBucketConfig.Website;
+    }, wwwStatus, apexBucket);
+    final CompletableFuture<Void> configureApex = stage("configureApex", () -> {
+      if (apexBucket.join() == null) {
+        configureBucket(domain, apexStatus.join(), WebsiteResources.primaryDomain(domain, wwwStatus.join()));
+        journal(domain, "bucket:" + domain, apexStatus.join().name());
+      }
+      return null;
+    }, apexStatus);
+    final CompletableFuture<Void> configureWww = stage("configureWww", () -> {
+      if (wwwBucket.join() == null) {
+        configureBucket(wwwDomain, wwwStatus.join(), WebsiteResources.primaryDomain(domain, wwwStatus.join()));
+        journal(domain, "bucket:" + wwwDomain, wwwStatus.join().name());
+      }
+      return null;
+    }, wwwStatus);
+    final CompletableFuture<Void> uploadApex = uploadAssets("uploadApexAssets", domain, domain, apexStatus);
+    final CompletableFuture<Void> uploadWww = uploadAssets("uploadWwwAssets", domain, wwwDomain, wwwStatus);
 
-    log.log("setupDomain", "stage=", "linkByCname");
-    linkByCname("www." + domain, zone, region);
+    // link route53 to s3
+    final CompletableFuture<ChangeInfo> apex = stage("linkApex", () -> linkApex(domain, zone.join(), region), zone).thenCompose(CreateWebsiteWorkflow::orNothing);
+    final CompletableFuture<ChangeInfo> www = stage("linkByCname", () -> linkByCname(domain, wwwDomain, zone.join(), region), zone).thenCompose(CreateWebsiteWorkflow::orNothing);
 
-    log.log("setupDomain", "end");
+    WebsiteResources.await(CompletableFuture.allOf(configureApex, configureWww, uploadApex, uploadWww, apex, www));
+    if (apex.join() != null) {
+      changeIds.add(apex.join().getId());
+    }
+    if (www.join() != null) {
+      changeIds.add(www.join().getId());
+    }
+    journal(domain, "complete", Long.toString(System.currentTimeMillis()));
+    log.event(Level.INFO, "setupDomain", "end", "domain", domain, "changes", changeIds);
+    return changeIds;
   }
 
   /**
-   * Ensure the bucket exists AND owned by us
+   * @return a future which completes once the changes made by setupDomain have propagated to every Route53 server
    */
-  private void ensureCriticalBucketsExist(final String bucket, final HostingRegion region) {
-    try {
-      universe.s3.createBucket(bucket, region.s3BucketLocation);
-    } catch (final AmazonS3Exception e) {
-      if (e.getErrorCode().equals("BucketAlreadyOwnedByYou")) {
-        // this is OK, and good
-      } else {
+  public CompletableFuture<Void> whenLive(final Set<String> changeIds) {
+    return universe.propagation.awaitAll(changeIds);
+  }
+
+  /**
+   * run the body on the executor once every stage that it depends on has finished
+   */
+  private <T> CompletableFuture<T> stage(final String name, final Callable<T> body, final CompletableFuture<?>... after) {
+    return CompletableFuture.allOf(after).thenApplyAsync((ignored) -> {
+      log.event(Level.DEBUG, "setupDomain", "stage", "stage", name);
+      final long started = System.nanoTime();
+      boolean failed = true;
+      try {
+        final T result = body.call();
+        failed = false;
+        return result;
+      } catch (final RuntimeException e) {
         throw e;
+      } catch (final Exception e) {
+        throw new CompletionException(e);
+      } finally {
+        universe.metrics.record("stage." + name, started, failed);
       }
-    }
+    }, executor);
   }
 
   /**
-   * ensure route53 knows about the domain
+   * a link stage produces null when there was nothing to link
    */
-  private HostedZone ensureHostedZoneExists(final String domain) {
-    final HostedZone zone = findHostedZone(domain);
-    if (zone == null) {
-      final CreateHostedZoneRequest request = new CreateHostedZoneRequest();
-      request.setCallerReference(domain + System.currentTimeMillis());
-      request.setName(domain + ".");
-      request.setHostedZoneConfig(new HostedZoneConfig().withComment(domain + "@" + System.currentTimeMillis()));
-      return universe.route53.createHostedZone(request).getHostedZone();
+  private static CompletableFuture<ChangeInfo> orNothing(final CompletableFuture<ChangeInfo> change) {
+    if (change == null) {
+      return CompletableFuture.completedFuture(null);
     }
-    return zone;
+    return change;
   }
 
   /**
-   * helper: find the hosted zone for the domain
+   * Ensure the bucket exists AND owned by us
    */
-  private HostedZone findHostedZone(final String domain) {
-    final ListHostedZonesRequest request = new ListHostedZonesRequest();
-    ListHostedZonesResult result;
-    while (true) {
-      result = universe.route53.listHostedZones(request);
-      final String domainWithExtraDot = domain + ".";
-      for (final HostedZone zone : result.getHostedZones()) {
-        if (zone.getName().equals(domainWithExtraDot)) {
-          return zone;
-        }
-      }
-      if (!result.isTruncated()) {
-        return null;
-      }
-      request.setMarker(result.getNextMarker());
-    }
+  private void ensureCriticalBucketsExist(final String bucket, final HostingRegion region) {
+    WebsiteResources.ensureBucket(universe, bucket, region);
   }
 
   /**
-   * Find a ResourceRecordSet with a specific name for a specific type
+   * ensure route53 knows about the domain; a subdomain shares the zone of its parent if we host the parent
    */
-  private ResourceRecordSet findRR(final String domain, final String type, final HostedZone zone) {
-    log.log("findRR", "domain=", domain, "type=", type);
-    final ListResourceRecordSetsRequest request = new ListResourceRecordSetsRequest();
-    request.setHostedZoneId(zone.getId());
-    request.setStartRecordName(domain + ".");
-    final ListResourceRecordSetsResult result = universe.route53.listResourceRecordSets(request);
-    if (result.isTruncated()) {
-      throw new RuntimeException("the hosted zone has too many records, not scanning [TODO]");
+  private HostedZone ensureHostedZoneExists(final String domain, final Set<String> changeIds) {
+    final HostedZone known = journaledZone(domain);
+    if (known != null) {
+      return known;
     }
-    for (final ResourceRecordSet set : result.getResourceRecordSets()) {
-      if (set.getName().equals(domain + ".")) {
-        if (set.getType().equalsIgnoreCase(type)) {
-          return set;
-        }
-      }
+    final HostedZone zone = universe.zones.findEnclosing(domain);
+    if (zone == null) {
+      final CreateHostedZoneResult result = WebsiteResources.createZone(universe, domain);
+      final HostedZone created = result.getHostedZone();
+      changeIds.add(result.getChangeInfo().getId());
+      journal(domain, "zone", created.getId() + " " + created.getName());
+      return created;
     }
-    return null;
+    journal(domain, "zone", zone.getId() + " " + zone.getName());
+    return zone;
   }
 
   /**
-   * link the given domain via the root(apex) record which can be done with route53's alias concept
+   * Find a ResourceRecordSet with a specific name for a specific type; when the owner's journal is being verified, the
+   * set is read from Route53 itself rather than the (possibly stale) snapshot
    */
-  private void linkApex(final String domain, final HostedZone zone, final HostingRegion region) {
-    ResourceRecordSet set = findRR(domain, "a", zone);
-    if (set != null) {
-      return;
+  private ResourceRecordSet findRR(final String owner, final String domain, final String type, final HostedZone zone) {
+    if (log.isEnabled(Level.DEBUG)) {
+      log.event(Level.DEBUG, "findRR", "lookup", "domain", domain, "type", type);
+    }
+    if (verify(owner)) {
+      return universe.records.lookup(zone.getId(), domain, type);
     }
-    set = new ResourceRecordSet();
-    set.setName(domain + ".");
-    set.setType(RRType.A);
-    final AliasTarget target = new AliasTarget();
-    target.setDNSName(region.s3Domain + ".");
-    target.setHostedZoneId(region.zoneId);
-    target.setEvaluateTargetHealth(false);
-    set.setAliasTarget(target);
-    addResourceRecordSet(set, zone);
+    return universe.records.find(zone.getId(), domain, type);
   }
 
   /**
-   * link the given domain by a cname (i.e. as a subdomain)
+   * link the given domain via the root(apex) record which can be done with route53's alias concept
    */
-  private void linkByCname(final String domain, final HostedZone zone, final HostingRegion region) {
-    ResourceRecordSet set = findRR(domain, "cname", zone);
-    if (set != null) {
-      return;
+  private CompletableFuture<ChangeInfo> linkApex(final String domain, final HostedZone zone, final HostingRegion region) {
+    final String step = recordStep(domain, "A");
+    if (!verify(domain) && journaled(domain, step) != null) {
+      return null;
+    }
+    if (findRR(domain, domain, "a", zone) != null) {
+      journal(domain, step, "existing");
+      return null;
     }
-    set = new ResourceRecordSet();
-    set.setName(domain + ".");
-    set.setType(RRType.CNAME);
-    set.setTTL(300L);
-    final ResourceRecord rr = new ResourceRecord();
-    rr.setValue(domain + "." + region.s3Domain + ".");
-    set.setResourceRecords(Collections.singleton(rr));
-    addResourceRecordSet(set, zone);
+    return addResourceRecordSet(domain, WebsiteResources.apexRecord(domain, region), zone);
   }
 
   /**
-   * ensure the buckets exist and are configured appropriately. If both of the buckets are new
+   * link the given domain by a cname (i.e. as a subdomain)
+   *
+   * @param owner the domain being set up (which the journal is kept under)
    */
-  private void setupBuckets(final String domain, final HostingRegion region) throws Exception {
-    log.log("setupBuckets", "domain=", domain);
-    final String wwwDomain = "www." + domain;
-    ensureCriticalBucketsExist(domain, region);
-    ensureCriticalBucketsExist(wwwDomain, region);
-    // attempt to classify www as a redirect
-    final IdealizedBucketConfig wwwStatus = classify(wwwDomain, IdealizedBucketConfig.Redirect);
-    final IdealizedBucketConfig apexStatus;
-    final String primaryDomain;
-    if (wwwStatus == IdealizedBucketConfig.Website) {
-      log.log("setupBuckets", "www is a website");
-      apexStatus = classify(domain, IdealizedBucketConfig.Redirect);
-      if (apexStatus == IdealizedBucketConfig.Website) {
-        log.log("setupBuckets", "apex is a website");
-      } else {
-        log.log("setupBuckets", "apex is redirect");
-      }
-      primaryDomain = wwwDomain;
-    } else {
-      log.log("setupBuckets", "www is a redirect");
-      apexStatus = IdealizedBucketConfig.Website;
-      primaryDomain = domain;
+  private CompletableFuture<ChangeInfo> linkByCname(final String owner, final String domain, final HostedZone zone, final HostingRegion region) {
+    final String step = recordStep(domain, "CNAME");
+    if (!verify(owner) && journaled(owner, step) != null) {
+      return null;
+    }
+    if (findRR(owner, domain, "cname", zone) != null) {
+      journal(owner, step, "existing");
+      return null;
     }
-    configureBucket(domain, apexStatus, primaryDomain);
-    configureBucket(wwwDomain, wwwStatus, primaryDomain);
-    uploadAssets(domain,  apexStatus);
-    uploadAssets(wwwDomain,  wwwStatus);
+    return addResourceRecordSet(owner, WebsiteResources.cnameRecord(domain, region), zone);
   }
 }
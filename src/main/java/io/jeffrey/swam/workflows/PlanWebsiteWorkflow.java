@@ -0,0 +1,532 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.templates.StarterTemplates;
+import io.jeffrey.swam.workflows.WebsiteResources.IdealizedBucketConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.CreateHostedZoneResult;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Provision many domains in two phases rather than with a read and a write per step. The plan reads the state of every
+ * domain at once (the zone index, one listing of each zone's records, one listing of every bucket, each bucket's
+ * website configuration, and one listing of each website bucket's objects) and works out what setupDomain would
+ * change; nothing is written. The apply then makes only those changes, a phase at a time across every domain: zones and
+ * buckets, then website configurations, then assets and records (the records going out as a few change batches per
+ * zone). A domain with nothing to change costs its share of the reads and nothing else.
+ *
+ * @author jeffrey
+ */
+public class PlanWebsiteWorkflow {
+
+  /**
+   * What is to change for a single domain
+   */
+  public static class SitePlan {
+    public final String                            domain;
+    /** what is to change, for review (i.e. "+ bucket www.alice.io") */
+    public final List<String>                      actions;
+    private HostedZone                             zone;
+    private boolean                                createZone;
+    private final List<String>                     createBuckets;
+    private final Map<String, BucketWebsiteConfiguration> configure;
+    private final Map<String, List<String>>        uploads;
+    private boolean                                linkApex;
+    private boolean                                linkWww;
+    /** the calls setupDomain would make for the domain (without a journal) */
+    private int                                    stepwiseCalls;
+
+    private SitePlan(final String domain) {
+      this.domain = domain;
+      this.actions = new ArrayList<>();
+      this.createBuckets = new ArrayList<>();
+      this.configure = new LinkedHashMap<>();
+      this.uploads = new LinkedHashMap<>();
+    }
+
+    /**
+     * @return whether the domain is already what setupDomain would make
+     */
+    public boolean unchanged() {
+      return actions.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      if (unchanged()) {
+        return "= " + domain;
+      }
+      return "~ " + domain + "\n    " + String.join("\n    ", actions);
+    }
+  }
+
+  /**
+   * What is to change for every domain, and what it cost to find out
+   */
+  public static class Plan {
+    public final HostingRegion  region;
+    public final List<SitePlan> sites;
+    /** the calls the plan made */
+    public final int            reads;
+
+    private Plan(final HostingRegion region, final List<SitePlan> sites, final int reads) {
+      this.region = region;
+      this.sites = Collections.unmodifiableList(sites);
+      this.reads = reads;
+    }
+
+    /**
+     * @return the calls the apply will make (counting each record change alone, though they share batches)
+     */
+    public int writes() {
+      int writes = 0;
+      for (final SitePlan site : sites) {
+        writes += (site.createZone ? 1 : 0) + site.createBuckets.size() + site.configure.size() + (site.linkApex ? 1 : 0) + (site.linkWww ? 1 : 0);
+        for (final List<String> uris : site.uploads.values()) {
+          writes += uris.size();
+        }
+      }
+      return writes;
+    }
+
+    /**
+     * @return the calls running setupDomain on every domain would make
+     */
+    public int stepwiseCalls() {
+      int calls = 0;
+      for (final SitePlan site : sites) {
+        calls += site.stepwiseCalls;
+      }
+      return calls;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      int changed = 0;
+      for (final SitePlan site : sites) {
+        if (!site.unchanged()) {
+          changed++;
+        }
+      }
+      return "domains=" + sites.size() + " changed=" + changed + " reads=" + reads + " writes=" + writes() + " (setupDomain per domain would make about " + stepwiseCalls() + " calls)";
+    }
+  }
+
+  /**
+   * What the apply did
+   */
+  public static class Applied {
+    /** the ids of the Route53 changes made (see CreateWebsiteWorkflow.whenLive) */
+    public final Set<String>            changeIds;
+    /** the domains which failed, and why (their later phases were skipped) */
+    public final Map<String, Exception> failures;
+
+    private Applied(final Set<String> changeIds, final Map<String, Exception> failures) {
+      this.changeIds = changeIds;
+      this.failures = failures;
+    }
+  }
+
+  private final WorkflowStatusLog log;
+  private final Universe          universe;
+  private final int               parallelism;
+  private final AtomicInteger     calls;
+
+  /**
+   * @param universe all things Amazon
+   * @param parallelism the maximum number of reads (or writes) in flight
+   */
+  public PlanWebsiteWorkflow(final WorkflowStatusLog log, final Universe universe, final int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.log = log;
+    this.universe = universe;
+    this.parallelism = parallelism;
+    this.calls = new AtomicInteger(0);
+  }
+
+  /**
+   * read the state of every domain and work out what is to change; nothing is written
+   */
+  public Plan plan(final List<String> domains, final HostingRegion region) throws Exception {
+    log.event(Level.INFO, "plan", "start", "domains", domains.size());
+    calls.set(0);
+    final List<String> uris = universe.templates.uris();
+
+    // one listing of every bucket we own
+    final Set<String> owned = new HashSet<>();
+    for (final Bucket bucket : read(() -> universe.s3.listBuckets())) {
+      owned.add(bucket.getName());
+    }
+
+    // the website configuration of each bucket which exists, in parallel
+    final ConcurrentHashMap<String, BucketWebsiteConfiguration> websites = new ConcurrentHashMap<>();
+    final ArrayList<Callable<Void>> reads = new ArrayList<>();
+    for (final String domain : domains) {
+      for (final String bucket : new String[] { domain, "www." + domain }) {
+        if (owned.contains(bucket)) {
+          reads.add(() -> {
+            final BucketWebsiteConfiguration config = read(() -> universe.s3.getBucketWebsiteConfiguration(bucket));
+            if (config != null) {
+              websites.put(bucket, config);
+            }
+            return null;
+          });
+        }
+      }
+    }
+    runAll(reads);
+
+    // classify each domain's buckets just as setupDomain would, then list the objects of each website bucket
+    final ArrayList<SitePlan> sites = new ArrayList<>();
+    final ConcurrentHashMap<String, Set<String>> objects = new ConcurrentHashMap<>();
+    reads.clear();
+    for (final String domain : domains) {
+      final SitePlan site = new SitePlan(domain);
+      sites.add(site);
+      for (final String bucket : primaryWebsites(domain, websites)) {
+        if (owned.contains(bucket)) {
+          reads.add(() -> {
+            objects.put(bucket, listKeys(bucket));
+            return null;
+          });
+        }
+      }
+    }
+    runAll(reads);
+
+    // records come from the zone index and one listing per zone (loaded on first use, in parallel across domains)
+    reads.clear();
+    for (final SitePlan site : sites) {
+      reads.add(() -> {
+        diff(site, region, uris, owned, websites, objects);
+        return null;
+      });
+    }
+    runAll(reads);
+
+    final Plan plan = new Plan(region, sites, calls.get() + zoneReads(sites));
+    log.event(Level.INFO, "plan", "end", "plan", plan);
+    return plan;
+  }
+
+  /**
+   * make the changes within the plan, a phase at a time across every domain
+   */
+  public Applied apply(final Plan plan) throws Exception {
+    log.event(Level.INFO, "apply", "start", "plan", plan);
+    final Set<String> changeIds = new ConcurrentSkipListSet<>();
+    final Map<String, Exception> failures = new ConcurrentHashMap<>();
+    final List<SitePlan> changed = new ArrayList<>();
+    for (final SitePlan site : plan.sites) {
+      if (!site.unchanged()) {
+        changed.add(site);
+      }
+    }
+
+    // zones and buckets
+    phase(changed, failures, (site) -> {
+      if (site.createZone) {
+        final CreateHostedZoneResult result = WebsiteResources.createZone(universe, site.domain);
+        site.zone = result.getHostedZone();
+        changeIds.add(result.getChangeInfo().getId());
+      }
+      for (final String bucket : site.createBuckets) {
+        WebsiteResources.ensureBucket(universe, bucket, plan.region);
+      }
+    });
+
+    // website configurations
+    phase(changed, failures, (site) -> {
+      for (final Map.Entry<String, BucketWebsiteConfiguration> entry : site.configure.entrySet()) {
+        universe.s3.setBucketWebsiteConfiguration(entry.getKey(), entry.getValue());
+      }
+    });
+
+    // records (batched per zone by the change batcher) and assets
+    final ArrayList<CompletableFuture<ChangeInfo>> records = new ArrayList<>();
+    final Map<CompletableFuture<ChangeInfo>, String> owners = new ConcurrentHashMap<>();
+    for (final SitePlan site : changed) {
+      if (failures.containsKey(site.domain)) {
+        continue;
+      }
+      if (site.linkApex) {
+        final CompletableFuture<ChangeInfo> future = link(site.zone, WebsiteResources.apexRecord(site.domain, plan.region));
+        records.add(future);
+        owners.put(future, site.domain);
+      }
+      if (site.linkWww) {
+        final CompletableFuture<ChangeInfo> future = link(site.zone, WebsiteResources.cnameRecord("www." + site.domain, plan.region));
+        records.add(future);
+        owners.put(future, site.domain);
+      }
+    }
+    phase(changed, failures, (site) -> {
+      final Map<String, Object> context = StarterTemplates.context(site.domain);
+      for (final Map.Entry<String, List<String>> entry : site.uploads.entrySet()) {
+        for (final String uri : entry.getValue()) {
+          WebsiteResources.upload(universe, entry.getKey(), uri, universe.templates.render(uri, context).getBytes(StandardCharsets.UTF_8));
+        }
+      }
+    });
+    for (final CompletableFuture<ChangeInfo> record : records) {
+      try {
+        changeIds.add(record.get().getId());
+      } catch (final ExecutionException e) {
+        failures.put(owners.get(record), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+      }
+    }
+
+    for (final SitePlan site : changed) {
+      if (!failures.containsKey(site.domain)) {
+        universe.journal.record(site.domain, "complete", Long.toString(System.currentTimeMillis()));
+      }
+    }
+    log.event(Level.INFO, "apply", "end", "changes", changeIds.size(), "failures", failures.size());
+    return new Applied(changeIds, failures);
+  }
+
+  /**
+   * work out what is to change for a single domain from what was read
+   */
+  private void diff(final SitePlan site, final HostingRegion region, final List<String> uris, final Set<String> owned, final Map<String, BucketWebsiteConfiguration> websites, final Map<String, Set<String>> objects) {
+    final String domain = site.domain;
+    final String wwwDomain = "www." + domain;
+
+    // setupDomain always creates both buckets and configures both, and reads www's configuration (and the apex's when
+    // www is the website)
+    site.stepwiseCalls = 2 + 2 + 1;
+
+    final IdealizedBucketConfig www = WebsiteResources.classify(websites.get(wwwDomain), IdealizedBucketConfig.Redirect);
+    final IdealizedBucketConfig apex;
+    if (www == IdealizedBucketConfig.Website) {
+      apex = WebsiteResources.classify(websites.get(domain), IdealizedBucketConfig.Redirect);
+      site.stepwiseCalls++;
+    } else {
+      apex = IdealizedBucketConfig.Website;
+    }
+    final String primary = WebsiteResources.primaryDomain(domain, www);
+    bucket(site, domain, apex, primary, uris, owned, websites, objects);
+    bucket(site, wwwDomain, www, primary, uris, owned, websites, objects);
+
+    site.zone = universe.zones.findEnclosing(domain);
+    if (site.zone == null) {
+      site.createZone = true;
+      site.actions.add("+ zone " + domain);
+      site.stepwiseCalls++;
+    }
+    site.linkApex = site.zone == null || universe.records.find(site.zone.getId(), domain, "A") == null;
+    site.linkWww = site.zone == null || universe.records.find(site.zone.getId(), wwwDomain, "CNAME") == null;
+    if (site.linkApex) {
+      site.actions.add("+ A " + domain + " -> " + region.s3Domain);
+      site.stepwiseCalls++;
+    }
+    if (site.linkWww) {
+      site.actions.add("+ CNAME " + wwwDomain + " -> " + wwwDomain + "." + region.s3Domain);
+      site.stepwiseCalls++;
+    }
+  }
+
+  /**
+   * work out what is to change for one of a domain's buckets
+   */
+  private static void bucket(final SitePlan site, final String bucket, final IdealizedBucketConfig kind, final String primary, final List<String> uris, final Set<String> owned, final Map<String, BucketWebsiteConfiguration> websites, final Map<String, Set<String>> objects) {
+    if (!owned.contains(bucket)) {
+      site.createBuckets.add(bucket);
+      site.actions.add("+ bucket " + bucket);
+    }
+    final BucketWebsiteConfiguration desired = WebsiteResources.configuration(kind, primary);
+    if (!matches(websites.get(bucket), desired)) {
+      site.configure.put(bucket, desired);
+      site.actions.add("~ configure " + bucket + " as " + (kind == IdealizedBucketConfig.Website ? "a website" : "a redirect to " + primary));
+    }
+    if (kind == IdealizedBucketConfig.Website) {
+      site.stepwiseCalls += uris.size();
+      final Set<String> present = objects.containsKey(bucket) ? objects.get(bucket) : Collections.<String> emptySet();
+      final ArrayList<String> missing = new ArrayList<>();
+      for (final String uri : uris) {
+        if (!present.contains(uri)) {
+          missing.add(uri);
+          site.actions.add("+ asset " + bucket + "/" + uri);
+        }
+      }
+      if (!missing.isEmpty()) {
+        site.uploads.put(bucket, missing);
+        site.stepwiseCalls += missing.size();
+      }
+    }
+  }
+
+  /**
+   * @return the buckets of the domain which will be websites (and so need their objects listed)
+   */
+  private static List<String> primaryWebsites(final String domain, final Map<String, BucketWebsiteConfiguration> websites) {
+    final ArrayList<String> buckets = new ArrayList<>();
+    final IdealizedBucketConfig www = WebsiteResources.classify(websites.get("www." + domain), IdealizedBucketConfig.Redirect);
+    if (www == IdealizedBucketConfig.Website) {
+      buckets.add("www." + domain);
+      if (WebsiteResources.classify(websites.get(domain), IdealizedBucketConfig.Redirect) == IdealizedBucketConfig.Website) {
+        buckets.add(domain);
+      }
+    } else {
+      buckets.add(domain);
+    }
+    return buckets;
+  }
+
+  /**
+   * @return whether the bucket is already configured as desired
+   */
+  private static boolean matches(final BucketWebsiteConfiguration current, final BucketWebsiteConfiguration desired) {
+    if (current == null) {
+      return false;
+    }
+    if (desired.getRedirectAllRequestsTo() != null) {
+      return current.getRedirectAllRequestsTo() != null && desired.getRedirectAllRequestsTo().getHostName().equalsIgnoreCase(current.getRedirectAllRequestsTo().getHostName());
+    }
+    return current.getRedirectAllRequestsTo() == null && desired.getIndexDocumentSuffix().equals(current.getIndexDocumentSuffix()) && desired.getErrorDocument().equals(current.getErrorDocument());
+  }
+
+  /**
+   * @return every key within the bucket (one paginated listing)
+   */
+  private Set<String> listKeys(final String bucket) {
+    final Set<String> keys = new HashSet<>();
+    ObjectListing listing = read(() -> universe.s3.listObjects(new ListObjectsRequest().withBucketName(bucket)));
+    while (true) {
+      for (final S3ObjectSummary summary : listing.getObjectSummaries()) {
+        keys.add(summary.getKey());
+      }
+      if (!listing.isTruncated()) {
+        return keys;
+      }
+      final ObjectListing previous = listing;
+      listing = read(() -> universe.s3.listNextBatchOfObjects(previous));
+    }
+  }
+
+  /**
+   * @return the zone scans and record listings the plan caused (each loaded once and shared by every domain)
+   */
+  private static int zoneReads(final List<SitePlan> sites) {
+    final Set<String> zones = new HashSet<>();
+    for (final SitePlan site : sites) {
+      if (site.zone != null) {
+        zones.add(site.zone.getId());
+      }
+    }
+    return 1 + zones.size();
+  }
+
+  /**
+   * make a read and count it
+   */
+  private <T> T read(final Supplier<T> call) {
+    calls.incrementAndGet();
+    return call.get();
+  }
+
+  /**
+   * run every task on a bounded pool and wait for them all
+   */
+  private void runAll(final List<Callable<Void>> tasks) throws Exception {
+    if (tasks.isEmpty()) {
+      return;
+    }
+    final AtomicInteger count = new AtomicInteger(0);
+    final ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), (r) -> {
+      final Thread thread = new Thread(r, "plan-worker-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final ArrayList<Future<Void>> futures = new ArrayList<>();
+      for (final Callable<Void> task : tasks) {
+        futures.add(workers.submit(task));
+      }
+      for (final Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * a step of the apply for a single domain
+   */
+  private static interface Step {
+    void apply(SitePlan site) throws Exception;
+  }
+
+  /**
+   * run the step for every domain which has not failed (in parallel); a domain whose step fails is skipped by later
+   * phases
+   */
+  private void phase(final List<SitePlan> sites, final Map<String, Exception> failures, final Step step) throws Exception {
+    final ArrayList<Callable<Void>> tasks = new ArrayList<>();
+    for (final SitePlan site : sites) {
+      if (failures.containsKey(site.domain)) {
+        continue;
+      }
+      tasks.add(() -> {
+        try {
+          step.apply(site);
+        } catch (final Exception e) {
+          log.event(Level.ERROR, "apply", "failed", "domain", site.domain, "error", e.getMessage());
+          failures.put(site.domain, e);
+        }
+        return null;
+      });
+    }
+    runAll(tasks);
+  }
+
+  /**
+   * submit a record to the zone through the change batcher
+   */
+  private CompletableFuture<ChangeInfo> link(final HostedZone zone, final ResourceRecordSet set) {
+    return universe.changes.submit(zone.getId(), new Change(ChangeAction.CREATE, set)).thenApply((info) -> {
+      universe.records.put(zone.getId(), set);
+      return info;
+    });
+  }
+}
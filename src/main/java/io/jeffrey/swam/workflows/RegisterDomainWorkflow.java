@@ -1,22 +1,73 @@
 package io.jeffrey.swam.workflows;
 
 import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
 import io.jeffrey.swam.amazon.Universe;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.route53domains.model.CheckDomainAvailabilityRequest;
 import com.amazonaws.services.route53domains.model.ContactDetail;
+import com.amazonaws.services.route53domains.model.DomainAvailability;
 import com.amazonaws.services.route53domains.model.DomainSummary;
+import com.amazonaws.services.route53domains.model.GetOperationDetailRequest;
 import com.amazonaws.services.route53domains.model.ListDomainsRequest;
 import com.amazonaws.services.route53domains.model.ListDomainsResult;
+import com.amazonaws.services.route53domains.model.OperationStatus;
 import com.amazonaws.services.route53domains.model.RegisterDomainRequest;
 
 /**
- * Registers a domain
+ * Registers domains. The domains the account owns are listed (every page) once and kept as a set, so checking whether
+ * we already own a domain is a memory hit no matter how many domains there are or how many we register.
  *
  * @author jeffrey
  */
 public class RegisterDomainWorkflow {
+  /** the journal step holding the operation id of a registration we submitted */
+  public static final String REGISTRATION_STEP = "registration";
+
+  /**
+   * How the registration of a single domain within a bulk registration went
+   */
+  public static class Registration {
+    public final String    domain;
+    /** OWNED (we already had it), PENDING (submitted earlier and not failed), UNAVAILABLE, SUBMITTED, or FAILED */
+    public final String    status;
+    /** the operation to follow for a SUBMITTED or PENDING registration */
+    public final String    operationId;
+    public final Exception failure;
+
+    private Registration(final String domain, final String status, final String operationId, final Exception failure) {
+      this.domain = domain;
+      this.status = status;
+      this.operationId = operationId;
+      this.failure = failure;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      if (failure != null) {
+        return status + " " + domain + " " + failure.getClass().getSimpleName() + ":" + failure.getMessage();
+      }
+      return status + " " + domain + (operationId != null ? " operation=" + operationId : "");
+    }
+  }
+
   private final WorkflowStatusLog log;
   private final Universe universe;
+  private volatile Set<String> owned;
 
   /**
    * @param universe all things Amazon
@@ -24,36 +75,163 @@ public class RegisterDomainWorkflow {
   public RegisterDomainWorkflow(final WorkflowStatusLog log, final Universe universe) {
     this.log = log;
     this.universe = universe;
+    this.owned = null;
   }
 
   /**
-   * @return whether or not the domain exists
+   * @return every domain the account owns (listed once, following every page marker)
    */
-  private boolean domainExists(final String domain) {
-    final ListDomainsRequest request = new ListDomainsRequest();
-    final ListDomainsResult result = universe.domains.listDomains(request);
-    if (result.getNextPageMarker() != null) {
-      throw new RuntimeException("have a new page marker");
+  public Set<String> ownedDomains() {
+    final Set<String> current = owned;
+    if (current != null) {
+      return current;
     }
-    for (final DomainSummary domainSummary : result.getDomains()) {
-      if (domainSummary.getDomainName().equals(domain)) {
-        return true;
+    synchronized (this) {
+      if (owned == null) {
+        final Set<String> domains = ConcurrentHashMap.newKeySet();
+        final ListDomainsRequest request = new ListDomainsRequest();
+        while (true) {
+          final ListDomainsResult result = universe.domains.listDomains(request);
+          for (final DomainSummary domainSummary : result.getDomains()) {
+            domains.add(domainSummary.getDomainName().toLowerCase());
+          }
+          if (result.getNextPageMarker() == null) {
+            break;
+          }
+          request.setMarker(result.getNextPageMarker());
+        }
+        log.event(Level.INFO, "register", "listed owned domains", "domains", domains.size());
+        owned = domains;
       }
+      return owned;
     }
-    return false;
+  }
+
+  /**
+   * @return whether or not the domain exists
+   */
+  private boolean domainExists(final String domain) {
+    return ownedDomains().contains(domain.toLowerCase());
   }
 
   /**
    * register a domain
    */
-  public void register(final String domain, final ContactDetail techContact, final ContactDetail adminContact, final ContactDetail registrantContact) {
-    log.log("register", "domain=", domain);
+  public void register(final String domain, final ContactDetail techContact, final ContactDetail adminContact, final ContactDetail registrantContact) throws IOException {
+    log.event(Level.INFO, "register", "start", "domain", domain);
     if (domainExists(domain)) {
-      log.log("register", "domain exists");
+      log.event(Level.INFO, "register", "domain exists", "domain", domain);
       return;
     }
 
-    log.log("register", "attempting to register");
+    // a registration submitted by an earlier run (i.e. one which crashed) must not be paid for twice
+    final String pending = pending(domain);
+    if (pending != null) {
+      log.event(Level.INFO, "register", "already submitted", "domain", domain, "operation", pending);
+      return;
+    }
+
+    log.event(Level.INFO, "register", "attempting to register", "domain", domain);
+    submit(domain, techContact, adminContact, registrantContact);
+  }
+
+  /**
+   * register every domain we do not already own; availability is checked and registrations are submitted with up to
+   * parallelism in flight, and a failure of one domain does not stop the others
+   *
+   * @return the registrations in the same order as the given domains
+   */
+  public List<Registration> registerAll(final List<String> domains, final ContactDetail techContact, final ContactDetail adminContact, final ContactDetail registrantContact, final int parallelism) throws Exception {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    log.event(Level.INFO, "registerAll", "start", "domains", domains.size(), "parallelism", parallelism);
+    ownedDomains();
+    final AtomicInteger count = new AtomicInteger(0);
+    final ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, domains.size())), (r) -> {
+      final Thread thread = new Thread(r, "register-worker-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final ArrayList<Future<Registration>> futures = new ArrayList<>();
+      for (final String domain : domains) {
+        futures.add(workers.submit(() -> registerOne(domain, techContact, adminContact, registrantContact)));
+      }
+      final ArrayList<Registration> registrations = new ArrayList<>();
+      for (final Future<Registration> future : futures) {
+        registrations.add(future.get());
+      }
+      log.event(Level.INFO, "registerAll", "end");
+      return registrations;
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * @return the status of the operation (i.e. IN_PROGRESS or SUCCESSFUL) as Route53 Domains reports it
+   */
+  public String operationStatus(final String operationId) {
+    return universe.domains.getOperationDetail(new GetOperationDetailRequest().withOperationId(operationId)).getStatus();
+  }
+
+  /**
+   * check and register a single domain within a bulk registration
+   */
+  private Registration registerOne(final String domain, final ContactDetail techContact, final ContactDetail adminContact, final ContactDetail registrantContact) {
+    try {
+      if (domainExists(domain)) {
+        return new Registration(domain, "OWNED", null, null);
+      }
+      final String pending = pending(domain);
+      if (pending != null) {
+        return new Registration(domain, "PENDING", pending, null);
+      }
+      final String availability = universe.domains.checkDomainAvailability(new CheckDomainAvailabilityRequest().withDomainName(domain)).getAvailability();
+      if (!DomainAvailability.AVAILABLE.toString().equals(availability)) {
+        log.event(Level.WARN, "registerAll", "unavailable", "domain", domain, "availability", availability);
+        return new Registration(domain, "UNAVAILABLE", null, null);
+      }
+      return new Registration(domain, "SUBMITTED", submit(domain, techContact, adminContact, registrantContact), null);
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "registerAll", "failed", "domain", domain, "error", e.getMessage());
+      return new Registration(domain, "FAILED", null, e);
+    }
+  }
+
+  /**
+   * @return the operation id of a registration which an earlier run submitted and which has not failed, or null if a
+   *         registration should be submitted; a journaled registration which FAILED (or hit an ERROR) is forgotten so
+   *         that it may be tried again
+   */
+  private String pending(final String domain) throws IOException {
+    final String operationId = universe.journal.get(domain, REGISTRATION_STEP);
+    if (operationId == null) {
+      return null;
+    }
+    final String status;
+    try {
+      status = operationStatus(operationId);
+    } catch (final AmazonServiceException e) {
+      // we can't tell how it went, so err on the side of not paying twice
+      log.event(Level.WARN, "register", "unable to check the operation", "domain", domain, "operation", operationId, "error", e.getMessage());
+      return operationId;
+    }
+    if (OperationStatus.FAILED.toString().equals(status) || OperationStatus.ERROR.toString().equals(status)) {
+      log.event(Level.WARN, "register", "earlier registration did not go through", "domain", domain, "operation", operationId, "status", status);
+      universe.journal.forget(domain, REGISTRATION_STEP);
+      return null;
+    }
+    return operationId;
+  }
+
+  /**
+   * submit the registration and journal its operation id (since it takes a while to show up as owned)
+   *
+   * @return the operation id
+   */
+  private String submit(final String domain, final ContactDetail techContact, final ContactDetail adminContact, final ContactDetail registrantContact) {
     final RegisterDomainRequest request = new RegisterDomainRequest();
     request.setDurationInYears(1);
     request.setDomainName(domain);
@@ -63,6 +241,13 @@ public class RegisterDomainWorkflow {
     request.setPrivacyProtectAdminContact(true);
     request.setPrivacyProtectRegistrantContact(true);
     request.setPrivacyProtectTechContact(true);
-    universe.domains.registerDomain(request);
+    final String operationId = universe.domains.registerDomain(request).getOperationId();
+    log.event(Level.INFO, "register", "submitted", "domain", domain, "operation", operationId);
+    try {
+      universe.journal.record(domain, REGISTRATION_STEP, operationId);
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "register", "unable to journal", "domain", domain, "error", e.getMessage());
+    }
+    return operationId;
   }
 }
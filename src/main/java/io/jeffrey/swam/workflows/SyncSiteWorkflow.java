@@ -0,0 +1,219 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.AssetUploader;
+import io.jeffrey.swam.amazon.Universe;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * Make a bucket mirror a local directory. Local files are hashed into a manifest and compared against the ETags of a
+ * single paginated listing of the bucket, so only the files that changed are uploaded (in parallel) and only the files
+ * that were removed are deleted.
+ *
+ * @author jeffrey
+ */
+public class SyncSiteWorkflow {
+  /** S3 will delete at most this many keys per request */
+  private static final int MAX_KEYS_PER_DELETE = 1000;
+
+  /**
+   * What a sync did
+   */
+  public static class Report {
+    public final int uploaded;
+    public final int deleted;
+    public final int unchanged;
+
+    private Report(final int uploaded, final int deleted, final int unchanged) {
+      this.uploaded = uploaded;
+      this.deleted = deleted;
+      this.unchanged = unchanged;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return "uploaded=" + uploaded + " deleted=" + deleted + " unchanged=" + unchanged;
+    }
+  }
+
+  private final WorkflowStatusLog log;
+  private final Universe          universe;
+  private final int               parallelism;
+
+  /**
+   * @param universe all things Amazon
+   * @param parallelism the maximum number of uploads in flight
+   */
+  public SyncSiteWorkflow(final WorkflowStatusLog log, final Universe universe, final int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.log = log;
+    this.universe = universe;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * sync the directory into the bucket
+   */
+  public Report sync(final File directory, final String bucket) throws Exception {
+    if (!directory.isDirectory()) {
+      throw new IllegalArgumentException(directory + " is not a directory");
+    }
+    log.event(Level.INFO, "sync", "start", "bucket", bucket, "directory", directory.getPath());
+    final TreeMap<String, File> files = new TreeMap<>();
+    walk(directory, "", files);
+    final Map<String, String> remote = listRemote(bucket);
+
+    final ArrayList<String> toUpload = new ArrayList<>();
+    final HashMap<String, String> hashes = new HashMap<>();
+    int unchanged = 0;
+    for (final Map.Entry<String, File> entry : files.entrySet()) {
+      final String hash = md5(entry.getValue());
+      hashes.put(entry.getKey(), hash);
+      final String etag = remote.remove(entry.getKey());
+      if (etag != null && hash.equals(remoteHash(bucket, entry.getKey(), etag))) {
+        unchanged++;
+      } else {
+        toUpload.add(entry.getKey());
+      }
+    }
+    // what is left in remote no longer exists locally
+    final ArrayList<String> toDelete = new ArrayList<>(remote.keySet());
+    log.event(Level.INFO, "sync", "plan", "upload", toUpload.size(), "delete", toDelete.size(), "unchanged", unchanged);
+
+    upload(bucket, toUpload, files, hashes);
+    delete(bucket, toDelete);
+    final Report report = new Report(toUpload.size(), toDelete.size(), unchanged);
+    log.event(Level.INFO, "sync", "end", "report", report);
+    return report;
+  }
+
+  /**
+   * build the key to file manifest of the directory
+   */
+  private static void walk(final File directory, final String prefix, final Map<String, File> files) {
+    final File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (final File child : children) {
+      if (child.isHidden()) {
+        continue;
+      }
+      if (child.isDirectory()) {
+        walk(child, prefix + child.getName() + "/", files);
+      } else {
+        files.put(prefix + child.getName(), child);
+      }
+    }
+  }
+
+  /**
+   * page through the bucket once and capture key to ETag
+   */
+  private Map<String, String> listRemote(final String bucket) {
+    final HashMap<String, String> etags = new HashMap<>();
+    ObjectListing listing = universe.s3.listObjects(new ListObjectsRequest().withBucketName(bucket));
+    while (true) {
+      for (final S3ObjectSummary summary : listing.getObjectSummaries()) {
+        etags.put(summary.getKey(), summary.getETag().replace("\"", "").toLowerCase());
+      }
+      if (!listing.isTruncated()) {
+        return etags;
+      }
+      listing = universe.s3.listNextBatchOfObjects(listing);
+    }
+  }
+
+  /**
+   * @return the md5 of the remote object; the ETag is the md5 unless the object was uploaded in parts, and then we
+   *         look for the md5 we recorded in the metadata at upload time
+   */
+  private String remoteHash(final String bucket, final String key, final String etag) {
+    if (etag.indexOf('-') < 0) {
+      return etag;
+    }
+    return universe.s3.getObjectMetadata(bucket, key).getUserMetaDataOf(AssetUploader.MD5_METADATA);
+  }
+
+  /**
+   * upload the given keys on a bounded pool
+   */
+  private void upload(final String bucket, final List<String> keys, final Map<String, File> files, final Map<String, String> hashes) throws Exception {
+    if (keys.isEmpty()) {
+      return;
+    }
+    final ExecutorService uploaders = Executors.newFixedThreadPool(Math.min(parallelism, keys.size()));
+    try {
+      final ArrayList<Future<?>> futures = new ArrayList<>();
+      for (final String key : keys) {
+        final File file = files.get(key);
+        futures.add(uploaders.submit(() -> {
+          log.event(Level.DEBUG, "sync", "upload", "key", key);
+          universe.uploads.upload(bucket, key, file, hashes.get(key));
+          return null;
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      uploaders.shutdownNow();
+    }
+  }
+
+  /**
+   * delete the given keys in as few requests as possible
+   */
+  private void delete(final String bucket, final List<String> keys) {
+    for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_DELETE) {
+      final List<String> chunk = keys.subList(start, Math.min(keys.size(), start + MAX_KEYS_PER_DELETE));
+      log.event(Level.DEBUG, "sync", "delete", "keys", chunk.size());
+      universe.s3.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(chunk.toArray(new String[chunk.size()])));
+    }
+  }
+
+  /**
+   * @return the hex md5 of the file, which is what S3 reports as the ETag of a single part upload
+   */
+  static String md5(final File file) throws Exception {
+    final MessageDigest digest = MessageDigest.getInstance("MD5");
+    final InputStream input = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = input.read(buffer)) >= 0) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      input.close();
+    }
+    final StringBuilder sb = new StringBuilder();
+    for (final byte b : digest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,282 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.Universe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.DeleteHostedZoneRequest;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.NoSuchHostedZoneException;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+/**
+ * The inverse of CreateWebsiteWorkflow (i.e. the end of a term): the two records setupDomain made (the A alias of the
+ * domain and the CNAME of www) are deleted, both of its buckets are emptied and deleted, and its hosted zone is deleted
+ * if the zone is named for the domain and then holds nothing but its NS and SOA (a subdomain within a shared zone, or a
+ * zone with other records such as mail or other sites, is left be).
+ * <p>
+ * Many domains are torn down at once on a bounded pool of workers. Record deletions ride the change batcher so the
+ * domains within a shared zone go out as a few change batches, buckets are emptied with a paginated listing and
+ * deletes of up to 1000 keys per request, and every call is paced by the universe's rate limiters.
+ *
+ * @author jeffrey
+ */
+public class TeardownWebsiteWorkflow {
+  /** S3 will delete at most this many keys per request */
+  private static final int MAX_KEYS_PER_DELETE = 1000;
+
+  /**
+   * The result of tearing down a single domain
+   */
+  public static class Outcome {
+    public final String    domain;
+    public final long      durationMs;
+    public final int       records;
+    public final int       objects;
+    public final int       buckets;
+    public final boolean   zoneDeleted;
+    public final Exception failure;
+
+    private Outcome(final String domain, final long durationMs, final int records, final int objects, final int buckets, final boolean zoneDeleted, final Exception failure) {
+      this.domain = domain;
+      this.durationMs = durationMs;
+      this.records = records;
+      this.objects = objects;
+      this.buckets = buckets;
+      this.zoneDeleted = zoneDeleted;
+      this.failure = failure;
+    }
+
+    public boolean succeeded() {
+      return failure == null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      if (succeeded()) {
+        return "GONE " + domain + " " + durationMs + "ms records=" + records + " objects=" + objects + " buckets=" + buckets + " zone=" + zoneDeleted;
+      }
+      return "FAIL " + domain + " " + durationMs + "ms " + failure.getClass().getSimpleName() + ":" + failure.getMessage();
+    }
+  }
+
+  private final WorkflowStatusLog log;
+  private final Universe          universe;
+  private final int               parallelism;
+
+  /**
+   * @param universe all things Amazon (shared by every worker)
+   * @param parallelism the maximum number of domains being torn down at the same time
+   */
+  public TeardownWebsiteWorkflow(final WorkflowStatusLog log, final Universe universe, final int parallelism) {
+    if (parallelism <= 0) {
+      throw new IllegalArgumentException("parallelism must be positive");
+    }
+    this.log = log;
+    this.universe = universe;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * tear down every domain; a failure of one domain does not stop the others
+   *
+   * @return the outcomes in the same order as the given domains
+   */
+  public List<Outcome> teardownDomains(final List<String> domains) throws Exception {
+    log.event(Level.INFO, "teardownDomains", "start", "domains", domains.size(), "parallelism", parallelism);
+    final AtomicInteger count = new AtomicInteger(0);
+    final ExecutorService workers = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, domains.size())), (r) -> {
+      final Thread thread = new Thread(r, "teardown-worker-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      final ArrayList<Future<Outcome>> futures = new ArrayList<>();
+      for (final String domain : domains) {
+        futures.add(workers.submit(() -> teardownOne(domain)));
+      }
+      final ArrayList<Outcome> outcomes = new ArrayList<>();
+      for (final Future<Outcome> future : futures) {
+        outcomes.add(future.get());
+      }
+      log.event(Level.INFO, "teardownDomains", "end");
+      return outcomes;
+    } finally {
+      workers.shutdownNow();
+    }
+  }
+
+  /**
+   * tear down a single domain; the record deletions are submitted first so they linger (and batch with other domains)
+   * while the buckets are emptied
+   */
+  public Outcome teardownDomain(final String domain) throws Exception {
+    log.event(Level.INFO, "teardownDomain", "start", "domain", domain);
+    final long started = System.currentTimeMillis();
+    final long startedNanos = System.nanoTime();
+    boolean failed = true;
+    try {
+      final HostedZone zone = universe.zones.findEnclosing(domain);
+      final ArrayList<CompletableFuture<ChangeInfo>> deletions = new ArrayList<>();
+      if (zone != null) {
+        // only what setupDomain made; anything else under the domain (mail, verification, other sites) is left be
+        for (final ResourceRecordSet set : new ResourceRecordSet[] { universe.records.find(zone.getId(), domain, "A"), universe.records.find(zone.getId(), "www." + domain, "CNAME") }) {
+          if (set == null) {
+            continue;
+          }
+          deletions.add(universe.changes.submit(zone.getId(), new Change(ChangeAction.DELETE, set)).thenApply((info) -> {
+            universe.records.remove(zone.getId(), set);
+            return info;
+          }));
+        }
+      }
+
+      int objects = 0;
+      int buckets = 0;
+      for (final String bucket : new String[] { domain, "www." + domain }) {
+        final int emptied = emptyBucket(bucket);
+        if (emptied >= 0) {
+          objects += emptied;
+          universe.s3.deleteBucket(bucket);
+          buckets++;
+        }
+      }
+
+      for (final CompletableFuture<ChangeInfo> deletion : deletions) {
+        WebsiteResources.await(deletion);
+      }
+      final boolean zoneDeleted = zone != null && zone.getName().equalsIgnoreCase(domain + ".") && isEmpty(zone) && deleteZone(zone);
+
+      universe.journal.forget(domain);
+      final Outcome outcome = new Outcome(domain, System.currentTimeMillis() - started, deletions.size(), objects, buckets, zoneDeleted, null);
+      log.event(Level.INFO, "teardownDomain", "end", "outcome", outcome);
+      failed = false;
+      return outcome;
+    } finally {
+      universe.metrics.record("workflow.teardownDomain", startedNanos, failed);
+    }
+  }
+
+  /**
+   * tear down a single domain within a batch and capture how it went
+   */
+  private Outcome teardownOne(final String domain) {
+    final long started = System.currentTimeMillis();
+    try {
+      return teardownDomain(domain);
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "teardownDomains", "failed", "domain", domain, "error", e.getMessage());
+      return new Outcome(domain, System.currentTimeMillis() - started, 0, 0, 0, false, e);
+    }
+  }
+
+  /**
+   * delete every object within the bucket; a page of the listing is at most 1000 keys, so each page is a single delete
+   *
+   * @return how many objects were deleted, or -1 if the bucket does not exist
+   */
+  private int emptyBucket(final String bucket) {
+    ObjectListing listing;
+    try {
+      listing = universe.s3.listObjects(new ListObjectsRequest().withBucketName(bucket));
+    } catch (final AmazonS3Exception e) {
+      if (e.getStatusCode() == 404 || "NoSuchBucket".equals(e.getErrorCode())) {
+        log.event(Level.DEBUG, "teardownDomain", "no bucket", "bucket", bucket);
+        return -1;
+      }
+      throw e;
+    }
+    int deleted = 0;
+    final ArrayList<String> keys = new ArrayList<>();
+    while (true) {
+      for (final S3ObjectSummary summary : listing.getObjectSummaries()) {
+        keys.add(summary.getKey());
+        if (keys.size() == MAX_KEYS_PER_DELETE) {
+          deleted += deleteKeys(bucket, keys);
+        }
+      }
+      if (!listing.isTruncated()) {
+        break;
+      }
+      listing = universe.s3.listNextBatchOfObjects(listing);
+    }
+    deleted += deleteKeys(bucket, keys);
+    return deleted;
+  }
+
+  /**
+   * delete the keys in a single request and clear them
+   *
+   * @return how many keys were deleted
+   */
+  private int deleteKeys(final String bucket, final List<String> keys) {
+    if (keys.isEmpty()) {
+      return 0;
+    }
+    final int size = keys.size();
+    log.event(Level.DEBUG, "teardownDomain", "delete", "bucket", bucket, "keys", size);
+    universe.s3.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(keys.toArray(new String[size])));
+    keys.clear();
+    return size;
+  }
+
+  /**
+   * delete a hosted zone whose records (other than its NS and SOA) are gone
+   *
+   * @return whether the zone was deleted (false if it was already gone)
+   */
+  private boolean deleteZone(final HostedZone zone) {
+    try {
+      universe.route53.deleteHostedZone(new DeleteHostedZoneRequest(zone.getId()));
+      return true;
+    } catch (final NoSuchHostedZoneException e) {
+      return false;
+    } finally {
+      universe.zones.remove(zone);
+      universe.records.invalidate(zone.getId());
+    }
+  }
+
+  /**
+   * @return whether the zone holds nothing but its apex NS and SOA (read fresh, as others may have added to it)
+   */
+  private boolean isEmpty(final HostedZone zone) {
+    final boolean[] empty = new boolean[] { true };
+    universe.records.forEach(zone.getId(), (set) -> {
+      if (!isZoneApexRequired(zone, set)) {
+        empty[0] = false;
+      }
+    });
+    if (!empty[0]) {
+      log.event(Level.INFO, "teardownDomain", "zone still holds records", "zone", zone.getName());
+    }
+    return empty[0];
+  }
+
+  /**
+   * the NS and SOA of the zone's apex are made with the zone and can only go with it
+   */
+  private static boolean isZoneApexRequired(final HostedZone zone, final ResourceRecordSet set) {
+    final String name = set.getName().endsWith(".") ? set.getName() : set.getName() + ".";
+    return name.equalsIgnoreCase(zone.getName()) && ("NS".equals(set.getType()) || "SOA".equals(set.getType()));
+  }
+}
@@ -0,0 +1,323 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.WorkflowStatusLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniversePool;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+
+/**
+ * A pool of generic sites (i.e. pool-3fa94c1e.class.example.com) which are provisioned and live before anybody asks for
+ * them, so handing a student a site is a single record UPSERT rather than a setup and a propagation wait.
+ * <p>
+ * S3 serves a website only from the bucket named by the Host header, so a site cannot be renamed by pointing DNS at it;
+ * instead a claim binds the owner to the site with a TXT record (_owner.{site}) and the student is handed the site's
+ * own name. A replenisher keeps the pool at its target size, and the pool is kept in the journal so it survives a
+ * restart: a site still warming is warmed again, and a site whose owner was being reset is reset again.
+ *
+ * @author jeffrey
+ */
+public class WarmPool {
+  /** the journal step which tracks a pool site; the value is "warming", "ready", "releasing", or "claimed:{owner}" */
+  public static final String POOL_STEP = "pool";
+
+  /**
+   * A site handed to somebody
+   */
+  public static class Claim {
+    public final String owner;
+    public final String domain;
+
+    private Claim(final String owner, final String domain) {
+      this.owner = owner;
+      this.domain = domain;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+      return owner + " -> http://" + domain + "/";
+    }
+  }
+
+  private final WorkflowStatusLog                log;
+  private final UniversePool                     accounts;
+  private final UniversePool.Shard               account;
+  private final Universe                         universe;
+  private final CreateWebsiteWorkflow            creator;
+  private final String                           parent;
+  private final HostingRegion                    region;
+  private final int                              target;
+  private final ConcurrentLinkedDeque<String>    ready;
+  private final ConcurrentHashMap<String, Claim> claims;
+  private final AtomicInteger                    warming;
+  /** the names of the sites being warmed (which may not be journaled yet) */
+  private final Set<String>                      naming;
+  /** sites the journal left warming or releasing, which start picks up again */
+  private final ConcurrentLinkedDeque<String>    unfinished;
+  private final ScheduledExecutorService         replenisher;
+
+  /**
+   * @param parent the domain every pool site is a subdomain of
+   * @param target how many ready sites to keep on hand
+   */
+  public WarmPool(final WorkflowStatusLog log, final Universe universe, final String parent, final HostingRegion region, final int target) throws IOException {
+    this(log, new UniversePool(universe), parent, region, target);
+  }
+
+  /**
+   * the pool lives on the account of the parent, and each of its sites is placed there
+   *
+   * @param accounts where sites are placed
+   * @param parent the domain every pool site is a subdomain of
+   * @param target how many ready sites to keep on hand
+   */
+  public WarmPool(final WorkflowStatusLog log, final UniversePool accounts, final String parent, final HostingRegion region, final int target) throws IOException {
+    this.log = log;
+    this.accounts = accounts;
+    this.account = accounts.place(parent);
+    this.universe = account.universe;
+    this.creator = new CreateWebsiteWorkflow(log, universe);
+    this.parent = parent.toLowerCase();
+    this.region = region;
+    this.target = target;
+    this.ready = new ConcurrentLinkedDeque<>();
+    this.claims = new ConcurrentHashMap<>();
+    this.warming = new AtomicInteger(0);
+    this.naming = ConcurrentHashMap.newKeySet();
+    this.unfinished = new ConcurrentLinkedDeque<>();
+    this.replenisher = Executors.newSingleThreadScheduledExecutor((r) -> {
+      final Thread thread = new Thread(r, "warm-pool-replenisher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    recover();
+  }
+
+  /**
+   * start keeping the pool full
+   *
+   * @param checkEverySeconds how often the pool is topped up even when nobody claims anything
+   */
+  public void start(final long checkEverySeconds) {
+    String domain;
+    while ((domain = unfinished.pollFirst()) != null) {
+      final String site = domain;
+      if ("releasing".equals(universe.journal.get(site, POOL_STEP))) {
+        replenisher.execute(() -> release(site));
+      } else {
+        universe.executor.execute(() -> warm(site));
+      }
+    }
+    replenisher.scheduleWithFixedDelay(this::replenish, 0, checkEverySeconds, TimeUnit.SECONDS);
+  }
+
+  public void stop() {
+    replenisher.shutdownNow();
+  }
+
+  /**
+   * @return how many sites are ready to be claimed
+   */
+  public int ready() {
+    return ready.size();
+  }
+
+  /**
+   * @return how many sites are being provisioned right now
+   */
+  public int warming() {
+    return warming.get();
+  }
+
+  /**
+   * @return who has claimed which site
+   */
+  public Map<String, Claim> claims() {
+    return Collections.unmodifiableMap(claims);
+  }
+
+  /**
+   * hand a ready site to the owner (the same site if they already have one)
+   *
+   * @return the claim, or null if the pool is empty
+   */
+  public Claim claim(final String owner) throws Exception {
+    final Claim existing = claims.get(owner);
+    if (existing != null) {
+      return existing;
+    }
+    final String domain = ready.pollFirst();
+    if (domain == null) {
+      log.event(Level.WARN, "warmPool", "empty", "owner", owner);
+      replenisher.execute(this::replenish);
+      return null;
+    }
+    try {
+      bind(owner, domain);
+    } catch (final Exception e) {
+      // the UPSERT may have landed anyway
+      release(domain);
+      throw e;
+    }
+    final Claim claim = new Claim(owner, domain);
+    final Claim raced = claims.putIfAbsent(owner, claim);
+    if (raced != null) {
+      // the owner claimed twice at once; the other claim won, so this site goes back once it no longer names the owner
+      release(domain);
+      return raced;
+    }
+    universe.journal.record(domain, POOL_STEP, "claimed:" + owner);
+    log.event(Level.INFO, "warmPool", "claimed", "owner", owner, "domain", domain, "ready", ready.size());
+    replenisher.execute(this::replenish);
+    return claim;
+  }
+
+  /**
+   * record the owner on the site with a TXT record; the UPSERT rides the change batcher so claims made together share
+   * a single change batch
+   */
+  private void bind(final String owner, final String domain) throws Exception {
+    owner(domain, "\"owner=" + owner.replace("\"", "") + "\"");
+  }
+
+  /**
+   * reset the owner TXT of a site which was bound but not handed out, then put the site back at the front of the line;
+   * a site whose reset fails stays out of the pool (journaled as releasing, so a restart tries again)
+   */
+  private void release(final String domain) {
+    try {
+      universe.journal.record(domain, POOL_STEP, "releasing");
+      owner(domain, "\"unclaimed\"");
+      universe.journal.record(domain, POOL_STEP, "ready");
+      ready.addFirst(domain);
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "warmPool", "release failed", "domain", domain, "error", e.getMessage());
+    }
+  }
+
+  /**
+   * UPSERT the _owner TXT of the site
+   */
+  private void owner(final String domain, final String value) throws Exception {
+    final HostedZone zone = universe.zones.findEnclosing(domain);
+    if (zone == null) {
+      throw new IllegalStateException("no hosted zone for " + domain);
+    }
+    final ResourceRecordSet set = new ResourceRecordSet("_owner." + domain + ".", RRType.TXT);
+    set.setTTL(300L);
+    set.setResourceRecords(Collections.singleton(new ResourceRecord(value)));
+    universe.changes.submit(zone.getId(), new Change(ChangeAction.UPSERT, set)).get();
+    universe.records.put(zone.getId(), set);
+  }
+
+  /**
+   * start provisioning enough sites to bring ready plus warming up to the target
+   */
+  private void replenish() {
+    try {
+      while (ready.size() + warming.get() < target) {
+        warming.incrementAndGet();
+        final String domain = freshName();
+        universe.executor.execute(() -> warm(domain));
+      }
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "warmPool", "replenish failed", "error", e.getMessage());
+    }
+  }
+
+  /**
+   * @return a random (fixed width, 32 bit) site name which is not in the pool, not claimed, not being warmed, and not
+   *         known to the journal
+   */
+  private String freshName() {
+    while (true) {
+      final String domain = "pool-" + String.format("%08x", ThreadLocalRandom.current().nextInt()) + "." + parent;
+      if (!universe.journal.steps(domain).isEmpty() || ready.contains(domain) || isClaimed(domain)) {
+        continue;
+      }
+      if (naming.add(domain)) {
+        return domain;
+      }
+    }
+  }
+
+  private boolean isClaimed(final String domain) {
+    for (final Claim claim : claims.values()) {
+      if (claim.domain.equals(domain)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * provision a single pool site and make it claimable once it is live; the site is journaled as warming first so a
+   * crash part way through does not lose it (warming it again only does what is left, thanks to the journal)
+   */
+  private void warm(final String domain) {
+    try {
+      log.event(Level.INFO, "warmPool", "warming", "domain", domain);
+      accounts.pin(domain, account);
+      universe.journal.record(domain, POOL_STEP, "warming");
+      final Set<String> changeIds = creator.setupDomain(domain, region);
+      creator.whenLive(changeIds).get();
+      universe.journal.record(domain, POOL_STEP, "ready");
+      ready.addLast(domain);
+      log.event(Level.INFO, "warmPool", "ready", "domain", domain, "ready", ready.size());
+    } catch (final Exception e) {
+      log.event(Level.ERROR, "warmPool", "warm failed", "domain", domain, "error", e.getMessage());
+    } finally {
+      naming.remove(domain);
+      warming.decrementAndGet();
+    }
+  }
+
+  /**
+   * rebuild the pool from the journal
+   */
+  private void recover() {
+    for (final String domain : universe.journal.domains()) {
+      final String state = universe.journal.get(domain, POOL_STEP);
+      if (state == null || !domain.endsWith("." + parent)) {
+        continue;
+      }
+      if (state.equals("ready")) {
+        ready.addLast(domain);
+      } else if (state.startsWith("claimed:")) {
+        final String owner = state.substring("claimed:".length());
+        claims.put(owner, new Claim(owner, domain));
+      } else if (state.equals("warming")) {
+        // counted now so the replenisher does not start a replacement for it
+        warming.incrementAndGet();
+        unfinished.addLast(domain);
+      } else if (state.equals("releasing")) {
+        unfinished.addLast(domain);
+      }
+    }
+    if (!ready.isEmpty() || !claims.isEmpty() || !unfinished.isEmpty()) {
+      log.event(Level.INFO, "warmPool", "recovered", "ready", ready.size(), "claimed", claims.size(), "unfinished", unfinished.size());
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package io.jeffrey.swam.workflows;
+
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.templates.StarterTemplates;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.services.route53.model.AliasTarget;
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+import com.amazonaws.services.route53.model.CreateHostedZoneResult;
+import com.amazonaws.services.route53.model.HostedZoneConfig;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.RedirectRule;
+import com.amazonaws.services.s3.model.StorageClass;
+
+/**
+ * What a website is made of (its zone, buckets, website configurations, records, and starter assets), shared by the
+ * workflows which set one up step by step and those which plan many at once, so both make exactly the same site (along
+ * with the plumbing they and the teardown have in common).
+ *
+ * @author jeffrey
+ */
+final class WebsiteResources {
+
+  /**
+   * How should a bucket be configured? If think about fo.io and www.foo.io, then
+   * one of them is a redirect while the other is a real website. In the world of
+   * SWAM, we will think that fo.io is the real website whil www.foo.io is the
+   * redirect
+   *
+   * @author jeffrey
+   */
+  static enum IdealizedBucketConfig {
+    Website, Redirect
+  }
+
+  private WebsiteResources() {
+  }
+
+  /**
+   * If the website configuration exists, then it is already configured. If it isn't
+   * configured, then what ever we desire to be the configuration shall be.
+   */
+  static IdealizedBucketConfig classify(final BucketWebsiteConfiguration config, final IdealizedBucketConfig desired) {
+    if (config == null) {
+      return desired;
+    }
+    // it has already been configured as a redirect, so let's ensure the other is the primary
+    if (config.getRedirectAllRequestsTo() != null) {
+      return IdealizedBucketConfig.Redirect;
+    }
+    return IdealizedBucketConfig.Website;
+  }
+
+  /**
+   * if www is a website then it is the primary, otherwise the apex is
+   */
+  static String primaryDomain(final String domain, final IdealizedBucketConfig wwwStatus) {
+    if (wwwStatus == IdealizedBucketConfig.Website) {
+      return "www." + domain;
+    }
+    return domain;
+  }
+
+  /**
+   * @return the website configuration of a bucket which serves (or redirects to the primary domain)
+   */
+  static BucketWebsiteConfiguration configuration(final IdealizedBucketConfig status, final String primaryDomain) {
+    final BucketWebsiteConfiguration configuration = new BucketWebsiteConfiguration();
+    if (status == IdealizedBucketConfig.Website) {
+      configuration.setIndexDocumentSuffix("index.html");
+      configuration.setErrorDocument("error.html");
+    } else {
+      final RedirectRule rule = new RedirectRule();
+      rule.setHostName(primaryDomain);
+      rule.setHttpRedirectCode("301");
+      configuration.setRedirectAllRequestsTo(rule);
+    }
+    return configuration;
+  }
+
+  /**
+   * Ensure the bucket exists AND owned by us
+   */
+  static void ensureBucket(final Universe universe, final String bucket, final HostingRegion region) {
+    try {
+      universe.s3.createBucket(bucket, region.s3BucketLocation);
+    } catch (final AmazonS3Exception e) {
+      if (!"BucketAlreadyOwnedByYou".equals(e.getErrorCode())) {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * create a zone for the domain and add it to the zone index
+   */
+  static CreateHostedZoneResult createZone(final Universe universe, final String domain) {
+    final CreateHostedZoneRequest request = new CreateHostedZoneRequest();
+    request.setCallerReference(domain + System.currentTimeMillis());
+    request.setName(domain + ".");
+    request.setHostedZoneConfig(new HostedZoneConfig().withComment(domain + "@" + System.currentTimeMillis()));
+    final CreateHostedZoneResult result = universe.route53.createHostedZone(request);
+    universe.zones.put(result.getHostedZone());
+    return result;
+  }
+
+  /**
+   * @return the root(apex) record, which aliases the region's S3 website endpoint
+   */
+  static ResourceRecordSet apexRecord(final String domain, final HostingRegion region) {
+    final ResourceRecordSet set = new ResourceRecordSet(domain + ".", RRType.A);
+    final AliasTarget target = new AliasTarget();
+    target.setDNSName(region.s3Domain + ".");
+    target.setHostedZoneId(region.zoneId);
+    target.setEvaluateTargetHealth(false);
+    set.setAliasTarget(target);
+    return set;
+  }
+
+  /**
+   * @return the record linking a subdomain (i.e. www) to its bucket's website endpoint
+   */
+  static ResourceRecordSet cnameRecord(final String domain, final HostingRegion region) {
+    final ResourceRecordSet set = new ResourceRecordSet(domain + ".", RRType.CNAME);
+    set.setTTL(300L);
+    set.setResourceRecords(Collections.singleton(new ResourceRecord(domain + "." + region.s3Domain + ".")));
+    return set;
+  }
+
+  /**
+   * upload a rendered (and encoded) file of the starter site
+   */
+  static void upload(final Universe universe, final String bucket, final String uri, final byte[] bytes) throws Exception {
+    final ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(bytes.length);
+    metadata.setContentType(StarterTemplates.contentType(uri));
+    final PutObjectRequest request = new PutObjectRequest(bucket, uri, new ByteArrayInputStream(bytes), metadata);
+    request.setStorageClass(StorageClass.ReducedRedundancy);
+    universe.uploads.upload(request);
+  }
+
+  /**
+   * wait for the future and surface the real failure (rather than the wrapper)
+   */
+  static void await(final CompletableFuture<?> future) throws Exception {
+    try {
+      future.get();
+    } catch (final ExecutionException e) {
+      Throwable cause = e.getCause();
+      while (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package io.jeffrey.swam;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * many producers against the single writer
+ *
+ * @author jeffrey
+ */
+public class RingBufferWorkflowLogTest {
+  private static final Pattern EVENT   = Pattern.compile(" INFO \\[[^\\]]*\\] test event p=(\\d+) n=(\\d+)$");
+  private static final Pattern DROPPED = Pattern.compile("^LOG dropped (\\d+) events$");
+
+  /**
+   * run the producers at once, close the log, and check every event was written (in each producer's order) or
+   * counted as dropped
+   */
+  private static void produce(final int capacity, final int producers, final int events) throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    final RingBufferWorkflowLog log = new RingBufferWorkflowLog(output, capacity, Level.INFO);
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] threads = new Thread[producers];
+    for (int p = 0; p < producers; p++) {
+      final int producer = p;
+      threads[p] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (final InterruptedException e) {
+          return;
+        }
+        for (int n = 0; n < events; n++) {
+          log.event(Level.INFO, "test", "event", "p", producer, "n", n);
+          // below the minimum, so never offered
+          log.event(Level.DEBUG, "test", "ignored");
+        }
+      });
+      threads[p].start();
+    }
+    start.countDown();
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    log.close();
+
+    final int[] last = new int[producers];
+    Arrays.fill(last, -1);
+    long written = 0;
+    long reported = 0;
+    for (final String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+      if (line.isEmpty()) {
+        continue;
+      }
+      final Matcher dropped = DROPPED.matcher(line);
+      if (dropped.matches()) {
+        reported = Long.parseLong(dropped.group(1));
+        continue;
+      }
+      final Matcher event = EVENT.matcher(line);
+      assertTrue(line, event.find());
+      final int producer = Integer.parseInt(event.group(1));
+      final int n = Integer.parseInt(event.group(2));
+      assertTrue("out of order: " + line, n > last[producer]);
+      last[producer] = n;
+      written++;
+    }
+    assertEquals(log.dropped(), reported);
+    assertEquals((long) producers * events, written + log.dropped());
+  }
+
+  @Test
+  public void nothingIsLostWhenTheRingKeepsUp() throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (RingBufferWorkflowLog log = new RingBufferWorkflowLog(output, 1 << 16, Level.INFO)) {
+      for (int n = 0; n < 1000; n++) {
+        log.event(Level.INFO, "test", "event", "p", 0, "n", n);
+      }
+    }
+    assertEquals(1000, new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n").length);
+  }
+
+  @Test
+  public void concurrentProducersIntoALargeRing() throws Exception {
+    produce(1 << 16, 8, 5000);
+  }
+
+  @Test
+  public void concurrentProducersIntoATinyRingDropAndCount() throws Exception {
+    produce(4, 8, 5000);
+  }
+
+  @Test
+  public void closeWithoutEventsWritesNothing() throws Exception {
+    final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new RingBufferWorkflowLog(output, 16, Level.INFO).close();
+    assertEquals(0, output.size());
+  }
+}
@@ -0,0 +1,148 @@
+package io.jeffrey.swam.amazon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * replaying the journal, and recovering from a crash part way through an append
+ *
+ * @author jeffrey
+ */
+public class ProvisioningJournalTest {
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("journal-", ".log");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void replayRestoresEverySurvivingStep() throws IOException {
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      journal.record("alice.io", "zone", "Z1 alice.io.");
+      journal.record("alice.io", "bucket:alice.io", "Website");
+      journal.record("alice.io", "zone", "Z2 alice.io.");
+      journal.record("bob.io", "zone", "Z3 bob.io.");
+      journal.forget("alice.io", "bucket:alice.io");
+      journal.record("carol.io", "zone", "Z4 carol.io.");
+      journal.forget("carol.io");
+    }
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      assertEquals("Z2 alice.io.", journal.get("alice.io", "zone"));
+      assertNull(journal.get("alice.io", "bucket:alice.io"));
+      assertEquals("Z3 bob.io.", journal.get("bob.io", "zone"));
+      assertNull(journal.get("carol.io", "zone"));
+      assertEquals(2, journal.domains().size());
+    }
+  }
+
+  @Test
+  public void concurrentWritersAreAllDurable() throws Exception {
+    final ExecutorService writers = Executors.newFixedThreadPool(16);
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      final List<Future<?>> done = new ArrayList<>();
+      for (int w = 0; w < 16; w++) {
+        final String domain = "site-" + w + ".io";
+        done.add(writers.submit(() -> {
+          for (int k = 0; k < 100; k++) {
+            journal.record(domain, "asset:" + k, "present");
+          }
+          return null;
+        }));
+      }
+      for (final Future<?> future : done) {
+        future.get();
+      }
+    } finally {
+      writers.shutdown();
+    }
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      assertEquals(16, journal.domains().size());
+      for (int w = 0; w < 16; w++) {
+        assertEquals(100, journal.steps("site-" + w + ".io").size());
+      }
+    }
+  }
+
+  @Test
+  public void domainsAreCaseInsensitive() throws IOException {
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      journal.record("Alice.IO", "zone", "Z1 alice.io.");
+    }
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      assertEquals("Z1 alice.io.", journal.get("alice.io", "zone"));
+      assertEquals("Z1 alice.io.", journal.get("ALICE.io", "zone"));
+    }
+  }
+
+  @Test
+  public void truncatedTailIsCutOff() throws IOException {
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      journal.record("alice.io", "zone", "Z1 alice.io.");
+      journal.record("bob.io", "zone", "Z2 bob.io.");
+    }
+    final long intact = file.length();
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      journal.record("carol.io", "zone", "Z3 carol.io.");
+    }
+    // a crash part way through the last append
+    try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+      raw.setLength(file.length() - 3);
+    }
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      assertEquals("Z1 alice.io.", journal.get("alice.io", "zone"));
+      assertEquals("Z2 bob.io.", journal.get("bob.io", "zone"));
+      assertNull(journal.get("carol.io", "zone"));
+      assertEquals(intact, file.length());
+      // appends continue from the cut
+      journal.record("dave.io", "zone", "Z4 dave.io.");
+    }
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      assertEquals("Z4 dave.io.", journal.get("dave.io", "zone"));
+      assertEquals(3, journal.domains().size());
+    }
+  }
+
+  @Test
+  public void corruptEntryEndsTheReplay() throws IOException {
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      journal.record("alice.io", "zone", "Z1 alice.io.");
+    }
+    final long intact = file.length();
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      journal.record("bob.io", "zone", "Z2 bob.io.");
+      journal.record("carol.io", "zone", "Z3 carol.io.");
+    }
+    // flip a byte within bob's payload so its checksum fails; carol (after it) is lost with it
+    try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+      raw.seek(intact + 10);
+      final int b = raw.read();
+      raw.seek(intact + 10);
+      raw.write(b ^ 0xff);
+    }
+    try (ProvisioningJournal journal = new ProvisioningJournal(file)) {
+      assertEquals("Z1 alice.io.", journal.get("alice.io", "zone"));
+      assertNull(journal.get("bob.io", "zone"));
+      assertNull(journal.get("carol.io", "zone"));
+      assertEquals(intact, file.length());
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package io.jeffrey.swam.amazon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import io.jeffrey.swam.simulated.SimulatedAws;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+
+/**
+ * records changed behind the index's back are noticed once the snapshot expires, and at once by a lookup
+ *
+ * @author jeffrey
+ */
+public class RecordSetIndexTest {
+  private Universe   universe;
+  private HostedZone zone;
+
+  @Before
+  public void setUp() {
+    final SimulatedAws aws = new SimulatedAws();
+    aws.latencyMs = 0;
+    aws.jitterMs = 0;
+    aws.route53ThrottlePerSecond = 0;
+    aws.pageSize = 3;
+    final UniverseSettings settings = new UniverseSettings();
+    settings.recordSetTtlMs = 200;
+    settings.route53RatePerSecond = 1000;
+    universe = aws.universe(settings);
+    zone = universe.route53.createHostedZone(new CreateHostedZoneRequest("class.test", "test")).getHostedZone();
+    for (final String name : new String[] { "alice", "bob", "carol", "dave" }) {
+      change(ChangeAction.CREATE, name);
+    }
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    universe.shutdown();
+  }
+
+  /**
+   * change the zone directly, as somebody at the console would
+   */
+  private void change(final ChangeAction action, final String name) {
+    final ResourceRecordSet set = new ResourceRecordSet(name + ".class.test.", RRType.A).withTTL(300L);
+    set.setResourceRecords(Collections.singleton(new ResourceRecord("10.0.0.1")));
+    final ChangeBatch batch = new ChangeBatch().withChanges(new Change(action, set));
+    universe.route53.changeResourceRecordSets(new ChangeResourceRecordSetsRequest(zone.getId(), batch));
+  }
+
+  @Test
+  public void snapshotsExpire() throws Exception {
+    assertNotNull(universe.records.find(zone.getId(), "carol.class.test", "a"));
+    change(ChangeAction.DELETE, "carol");
+    assertNotNull(universe.records.find(zone.getId(), "carol.class.test", "a"));
+    Thread.sleep(300);
+    assertNull(universe.records.find(zone.getId(), "carol.class.test", "a"));
+    assertNotNull(universe.records.find(zone.getId(), "dave.class.test", "A"));
+  }
+
+  @Test
+  public void lookupReadsRoute53AndRefreshesTheSnapshot() throws Exception {
+    assertNotNull(universe.records.find(zone.getId(), "bob.class.test", "A"));
+    change(ChangeAction.DELETE, "bob");
+    assertNull(universe.records.lookup(zone.getId(), "Bob.class.test", "a"));
+    assertNull(universe.records.find(zone.getId(), "bob.class.test", "A"));
+    // the next set in the zone is not mistaken for the one asked about
+    assertNull(universe.records.lookup(zone.getId(), "bob.class.test", "CNAME"));
+    final ResourceRecordSet alice = universe.records.lookup(zone.getId(), "alice.class.test.", "A");
+    assertEquals("alice.class.test.", alice.getName());
+  }
+}
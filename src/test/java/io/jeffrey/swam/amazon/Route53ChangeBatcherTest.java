@@ -0,0 +1,169 @@
+package io.jeffrey.swam.amazon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.route53.AmazonRoute53;
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeInfo;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsResult;
+import com.amazonaws.services.route53.model.ChangeStatus;
+import com.amazonaws.services.route53.model.InvalidChangeBatchException;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+
+/**
+ * how changes are split into batches at Route53's per-request limits
+ *
+ * @author jeffrey
+ */
+public class Route53ChangeBatcherTest {
+  private static final String ZONE = "/hostedzone/Z1";
+
+  /**
+   * a Route53 which records the size of every batch (and rejects any batch holding a change named "bad.")
+   */
+  private static class Recorder {
+    private final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+    private final AmazonRoute53 route53 = (AmazonRoute53) Proxy.newProxyInstance(AmazonRoute53.class.getClassLoader(), new Class<?>[] { AmazonRoute53.class }, (proxy, method, args) -> {
+      if (!method.getName().equals("changeResourceRecordSets")) {
+        throw new UnsupportedOperationException(method.getName());
+      }
+      final List<Change> changes = ((ChangeResourceRecordSetsRequest) args[0]).getChangeBatch().getChanges();
+      batches.add(changes.size());
+      for (final Change change : changes) {
+        if (change.getResourceRecordSet().getName().equals("bad.")) {
+          throw new InvalidChangeBatchException("bad");
+        }
+      }
+      return new ChangeResourceRecordSetsResult().withChangeInfo(new ChangeInfo("/change/C" + batches.size(), ChangeStatus.PENDING, null));
+    });
+  }
+
+  private static Change change(final ChangeAction action, final String name, final String value) {
+    final ResourceRecordSet set = new ResourceRecordSet(name, RRType.CNAME).withTTL(300L);
+    set.setResourceRecords(Collections.singleton(new ResourceRecord(value)));
+    return new Change(action, set);
+  }
+
+  /**
+   * a batcher which never flushes on its own and sends on the calling thread
+   */
+  private static Route53ChangeBatcher batcher(final Recorder recorder) {
+    return new Route53ChangeBatcher(recorder.route53, 60 * 1000, Runnable::run);
+  }
+
+  @Test
+  public void fullBatchGoesOutEarly() throws Exception {
+    final Recorder recorder = new Recorder();
+    final Route53ChangeBatcher batcher = batcher(recorder);
+    final List<CompletableFuture<ChangeInfo>> futures = new ArrayList<>();
+    for (int k = 0; k < 1500; k++) {
+      futures.add(batcher.submit(ZONE, change(ChangeAction.CREATE, "r" + k + ".", "x")));
+    }
+    assertEquals(Collections.singletonList(Route53ChangeBatcher.MAX_RECORDS_PER_BATCH), recorder.batches);
+    batcher.flush(ZONE);
+    assertEquals(2, recorder.batches.size());
+    assertEquals(500, (int) recorder.batches.get(1));
+    assertEquals("/change/C1", futures.get(0).get().getId());
+    assertEquals("/change/C1", futures.get(999).get().getId());
+    assertEquals("/change/C2", futures.get(1000).get().getId());
+    batcher.shutdown();
+  }
+
+  @Test
+  public void upsertsCountTwice() throws Exception {
+    final Recorder recorder = new Recorder();
+    final Route53ChangeBatcher batcher = batcher(recorder);
+    for (int k = 0; k < 600; k++) {
+      batcher.submit(ZONE, change(ChangeAction.UPSERT, "r" + k + ".", "x"));
+    }
+    batcher.flush(ZONE);
+    assertEquals(2, recorder.batches.size());
+    assertEquals(500, (int) recorder.batches.get(0));
+    assertEquals(100, (int) recorder.batches.get(1));
+    batcher.shutdown();
+  }
+
+  @Test
+  public void valueCharactersSplitBatches() throws Exception {
+    final Recorder recorder = new Recorder();
+    final Route53ChangeBatcher batcher = batcher(recorder);
+    final StringBuilder value = new StringBuilder();
+    while (value.length() < 100) {
+      value.append('v');
+    }
+    // 320 values of 100 characters fill the 32000 character limit exactly
+    for (int k = 0; k < 321; k++) {
+      batcher.submit(ZONE, change(ChangeAction.CREATE, "r" + k + ".", value.toString()));
+    }
+    batcher.flush(ZONE);
+    assertEquals(2, recorder.batches.size());
+    assertEquals(320, (int) recorder.batches.get(0));
+    assertEquals(1, (int) recorder.batches.get(1));
+    batcher.shutdown();
+  }
+
+  @Test
+  public void zonesAreBatchedApart() throws Exception {
+    final Recorder recorder = new Recorder();
+    final Route53ChangeBatcher batcher = batcher(recorder);
+    batcher.submit(ZONE, change(ChangeAction.CREATE, "a.", "x"));
+    batcher.submit("/hostedzone/Z2", change(ChangeAction.CREATE, "b.", "x"));
+    batcher.submit(ZONE, change(ChangeAction.CREATE, "c.", "x"));
+    batcher.flushAll();
+    assertEquals(2, recorder.batches.size());
+    assertTrue(recorder.batches.contains(2));
+    assertTrue(recorder.batches.contains(1));
+    batcher.shutdown();
+  }
+
+  @Test
+  public void rejectedBatchIsRetriedAlone() throws Exception {
+    final Recorder recorder = new Recorder();
+    final Route53ChangeBatcher batcher = batcher(recorder);
+    final CompletableFuture<ChangeInfo> good = batcher.submit(ZONE, change(ChangeAction.CREATE, "good.", "x"));
+    final CompletableFuture<ChangeInfo> bad = batcher.submit(ZONE, change(ChangeAction.CREATE, "bad.", "x"));
+    batcher.flush(ZONE);
+    assertEquals(ChangeStatus.PENDING.toString(), good.get().getStatus());
+    try {
+      bad.get();
+      fail("the bad change went through");
+    } catch (final ExecutionException e) {
+      assertTrue(e.getCause() instanceof InvalidChangeBatchException);
+    }
+    batcher.shutdown();
+  }
+
+  @Test
+  public void nothingIsStrandedByAShutdown() throws Exception {
+    final Recorder recorder = new Recorder();
+    final ExecutorService sender = Executors.newSingleThreadExecutor();
+    final Route53ChangeBatcher batcher = new Route53ChangeBatcher(recorder.route53, 50, sender);
+    final CompletableFuture<ChangeInfo> lingering = batcher.submit(ZONE, change(ChangeAction.CREATE, "a.", "x"));
+    // the sender goes first (as it may within a universe), then the batcher
+    sender.shutdown();
+    batcher.shutdown();
+    assertEquals("/change/C1", lingering.get(1, TimeUnit.SECONDS).getId());
+    final CompletableFuture<ChangeInfo> late = batcher.submit(ZONE, change(ChangeAction.CREATE, "b.", "x"));
+    assertEquals("/change/C2", late.get(1, TimeUnit.SECONDS).getId());
+    Thread.sleep(100);
+    assertEquals(2, recorder.batches.size());
+  }
+}
@@ -0,0 +1,69 @@
+package io.jeffrey.swam.amazon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import io.jeffrey.swam.simulated.SimulatedAws;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+
+/**
+ * a site within a zone hosted by one account lives on that account no matter how placement would pick
+ *
+ * @author jeffrey
+ */
+public class UniversePoolTest {
+  private UniversePool pool;
+
+  @Before
+  public void setUp() {
+    final Map<String, Universe> universes = new LinkedHashMap<>();
+    for (final String name : new String[] { "a", "b", "c" }) {
+      final SimulatedAws aws = new SimulatedAws();
+      aws.latencyMs = 0;
+      aws.jitterMs = 0;
+      aws.route53ThrottlePerSecond = 0;
+      final UniverseSettings settings = new UniverseSettings();
+      settings.maxSites = 10;
+      universes.put(name, aws.universe(settings));
+    }
+    // the class zone lives on the last account, which least loaded would never pick first
+    universes.get("c").route53.createHostedZone(new CreateHostedZoneRequest("class.io.", "class"));
+    pool = new UniversePool(universes, UniversePool.Placement.LEAST_LOADED, new ProvisioningJournal());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.shutdown();
+  }
+
+  @Test
+  public void subdomainsFollowTheirZone() throws Exception {
+    final UniversePool.Shard c = pool.shards().get(2);
+    for (int k = 0; k < 5; k++) {
+      assertSame(c, pool.place("student" + k + ".class.io"));
+    }
+    assertSame(c, pool.place("Class.IO"));
+    assertEquals(6, c.placed());
+  }
+
+  @Test
+  public void unhostedDomainsUsePlacement() throws Exception {
+    pool.place("alice.class.io");
+    assertSame(pool.shards().get(0), pool.place("bob.io"));
+    assertSame(pool.shards().get(1), pool.place("carol.io"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void aFullHostingAccountIsAnError() throws Exception {
+    for (int k = 0; k < 11; k++) {
+      pool.place("student" + k + ".class.io");
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package io.jeffrey.swam.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * percentiles against the exact answer
+ *
+ * @author jeffrey
+ */
+public class LatencyHistogramTest {
+
+  /**
+   * the reported percentile is the upper bound of its bucket, so it is never below the truth and at most an eighth
+   * above it
+   */
+  private static void assertClose(final long exact, final long reported) {
+    assertTrue("reported " + reported + " below " + exact, reported >= exact);
+    assertTrue("reported " + reported + " too far above " + exact, reported <= exact + exact / 8);
+  }
+
+  @Test
+  public void emptyIsZero() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentileMicros(50));
+    assertEquals(0.0, histogram.meanMicros(), 0.0);
+  }
+
+  @Test
+  public void smallValuesAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int k = 0; k < 8; k++) {
+      histogram.record(k);
+    }
+    assertEquals(0, histogram.percentileMicros(0));
+    assertEquals(3, histogram.percentileMicros(50));
+    assertEquals(7, histogram.percentileMicros(100));
+  }
+
+  @Test
+  public void uniformPercentiles() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int k = 1; k <= 10000; k++) {
+      histogram.record(k);
+    }
+    assertEquals(10000, histogram.count());
+    assertEquals(5000.5, histogram.meanMicros(), 0.001);
+    assertClose(5000, histogram.percentileMicros(50));
+    assertClose(9000, histogram.percentileMicros(90));
+    assertClose(9900, histogram.percentileMicros(99));
+    assertEquals(10000, histogram.percentileMicros(100));
+    assertEquals(10000, histogram.maxMicros());
+  }
+
+  @Test
+  public void randomPercentilesMatchTheSortedTruth() {
+    final Random random = new Random(42);
+    final long[] values = new long[50000];
+    final LatencyHistogram histogram = new LatencyHistogram();
+    for (int k = 0; k < values.length; k++) {
+      // a long tail, as latencies have
+      values[k] = (long) Math.exp(random.nextDouble() * 16);
+      histogram.record(values[k]);
+    }
+    Arrays.sort(values);
+    for (final double percentile : new double[] { 1, 25, 50, 75, 90, 99, 99.9 }) {
+      final int rank = (int) Math.ceil(percentile / 100.0 * values.length);
+      assertClose(values[rank - 1], histogram.percentileMicros(percentile));
+    }
+    assertEquals(values[values.length - 1], histogram.percentileMicros(100));
+  }
+
+  @Test
+  public void negativeIsClampedAndHugeFits() {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(0, histogram.percentileMicros(50));
+    assertEquals(Long.MAX_VALUE, histogram.percentileMicros(100));
+    assertEquals(Long.MAX_VALUE, histogram.maxMicros());
+  }
+}
@@ -0,0 +1,130 @@
+package io.jeffrey.swam.workflows;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import io.jeffrey.swam.RingBufferWorkflowLog;
+import io.jeffrey.swam.WorkflowStatusLog.Level;
+import io.jeffrey.swam.amazon.HostingRegion;
+import io.jeffrey.swam.amazon.Universe;
+import io.jeffrey.swam.amazon.UniverseSettings;
+import io.jeffrey.swam.simulated.SimulatedAws;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.route53.model.Change;
+import com.amazonaws.services.route53.model.ChangeAction;
+import com.amazonaws.services.route53.model.ChangeBatch;
+import com.amazonaws.services.route53.model.ChangeResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.CreateHostedZoneRequest;
+import com.amazonaws.services.route53.model.GetHostedZoneRequest;
+import com.amazonaws.services.route53.model.HostedZone;
+import com.amazonaws.services.route53.model.ListResourceRecordSetsRequest;
+import com.amazonaws.services.route53.model.RRType;
+import com.amazonaws.services.route53.model.ResourceRecord;
+import com.amazonaws.services.route53.model.ResourceRecordSet;
+
+/**
+ * a teardown removes the site's own records and nothing else within a shared zone
+ *
+ * @author jeffrey
+ */
+public class TeardownWebsiteWorkflowTest {
+  private SimulatedAws          aws;
+  private Universe              universe;
+  private RingBufferWorkflowLog log;
+  private CreateWebsiteWorkflow creator;
+
+  @Before
+  public void setUp() {
+    aws = new SimulatedAws();
+    aws.latencyMs = 0;
+    aws.jitterMs = 0;
+    aws.route53ThrottlePerSecond = 0;
+    aws.domainsThrottlePerSecond = 0;
+    final UniverseSettings settings = new UniverseSettings();
+    settings.changeLingerMs = 1;
+    settings.route53RatePerSecond = 1000;
+    universe = aws.universe(settings);
+    log = new RingBufferWorkflowLog(new ByteArrayOutputStream(), 1024, Level.WARN);
+    creator = new CreateWebsiteWorkflow(log, universe);
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    universe.shutdown();
+    log.close();
+  }
+
+  /**
+   * add a record to the zone behind the workflows' back (i.e. somebody's mail)
+   */
+  private void addRecord(final HostedZone zone, final String name, final RRType type, final String value) {
+    final ResourceRecordSet set = new ResourceRecordSet(name, type).withTTL(300L);
+    set.setResourceRecords(Collections.singleton(new ResourceRecord(value)));
+    final ChangeBatch batch = new ChangeBatch().withChanges(new Change(ChangeAction.CREATE, set));
+    universe.route53.changeResourceRecordSets(new ChangeResourceRecordSetsRequest(zone.getId(), batch));
+  }
+
+  private ResourceRecordSet find(final HostedZone zone, final String name, final String type) {
+    // read fresh rather than through the index, which the teardown keeps up to date itself
+    for (final ResourceRecordSet set : universe.route53.listResourceRecordSets(new ListResourceRecordSetsRequest(zone.getId())).getResourceRecordSets()) {
+      if (set.getName().equalsIgnoreCase(name + ".") && set.getType().equals(type)) {
+        return set;
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void siblingsWithinASharedZoneSurvive() throws Exception {
+    final HostedZone shared = universe.route53.createHostedZone(new CreateHostedZoneRequest("class.test", "test")).getHostedZone();
+    creator.setupDomain("alice.class.test", HostingRegion.US_STANDARD);
+    creator.setupDomain("bob.class.test", HostingRegion.US_STANDARD);
+    addRecord(shared, "alice.class.test.", RRType.MX, "10 mail.class.test.");
+    addRecord(shared, "mail.class.test.", RRType.A, "10.0.0.1");
+
+    final TeardownWebsiteWorkflow.Outcome outcome = new TeardownWebsiteWorkflow(log, universe, 4).teardownDomain("alice.class.test");
+    assertTrue(String.valueOf(outcome.failure), outcome.succeeded());
+    assertEquals(2, outcome.records);
+    assertFalse(outcome.zoneDeleted);
+
+    assertNull(find(shared, "alice.class.test", "A"));
+    assertNull(find(shared, "www.alice.class.test", "CNAME"));
+    assertNotNull(find(shared, "alice.class.test", "MX"));
+    assertNotNull(find(shared, "mail.class.test", "A"));
+    assertNotNull(find(shared, "bob.class.test", "A"));
+    assertNotNull(find(shared, "www.bob.class.test", "CNAME"));
+    assertNotNull(find(shared, "class.test", "NS"));
+    assertNotNull(universe.route53.getHostedZone(new GetHostedZoneRequest(shared.getId())).getHostedZone());
+    assertTrue(universe.s3.doesBucketExist("bob.class.test"));
+    assertFalse(universe.s3.doesBucketExist("alice.class.test"));
+  }
+
+  @Test
+  public void ownZoneGoesOnlyWhenNothingElseIsInIt() throws Exception {
+    creator.setupDomain("carol.test", HostingRegion.US_STANDARD);
+    creator.setupDomain("dave.test", HostingRegion.US_STANDARD);
+    final HostedZone dave = universe.zones.findEnclosing("dave.test");
+    addRecord(dave, "dave.test.", RRType.TXT, "\"v=spf1 -all\"");
+    final int zones = aws.route53.zoneCount();
+
+    final TeardownWebsiteWorkflow teardown = new TeardownWebsiteWorkflow(log, universe, 4);
+    final TeardownWebsiteWorkflow.Outcome carol = teardown.teardownDomain("carol.test");
+    assertTrue(String.valueOf(carol.failure), carol.succeeded());
+    assertTrue(carol.zoneDeleted);
+
+    final TeardownWebsiteWorkflow.Outcome daveOutcome = teardown.teardownDomain("dave.test");
+    assertTrue(String.valueOf(daveOutcome.failure), daveOutcome.succeeded());
+    assertFalse(daveOutcome.zoneDeleted);
+    assertNotNull(find(dave, "dave.test", "TXT"));
+    assertEquals(zones - 1, aws.route53.zoneCount());
+  }
+}